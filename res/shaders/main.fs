@@ -13,8 +13,18 @@ in vec3 f_normal;
 
 out vec4 out_color;
 
+// The data of the view, written by FrameUniforms
+layout(std140) uniform Frame {
+	mat4 m_proj;
+	mat4 m_view;
+	vec3 camera_pos;
+	vec4 clip_plane;
+	vec3 sun_direction;
+	vec3 sun_ambient;
+	vec3 sun_diffuse;
+};
+
 uniform sampler2D s_texture;
-uniform DirectionalLight dir_light;
 
 vec3 calcDirLight(DirectionalLight light, vec3 normal, vec4 color) {
 	// Get light direction pointing toward light source
@@ -35,5 +45,6 @@ void main()
 	vec4 textureColor = texture2D(s_texture, f_texcoords);
 	vec3 normal = normalize(f_normal);
 	
-	out_color = vec4(calcDirLight(dir_light, normal, textureColor), 1.0);
+	DirectionalLight sun = DirectionalLight(sun_direction, sun_ambient, sun_diffuse);
+	out_color = vec4(calcDirLight(sun, normal, textureColor), 1.0);
 }
\ No newline at end of file
@@ -1,27 +1,87 @@
 #version 330
 
+// Terrain vertices are packed as TerrainVertex: the position in grid units with the height in 1/256 units,
+// and the normal octahedral-encoded. The texture repeats once per tile. v_translation moves a region to its origin.
+// In clipmap mode v_position holds the cell coordinates and the edge flag of a ClipmapTerrain vertex instead,
+// and v_instance the grid origin, spacing and heightmap layer of the level.
 layout (location = 0) in vec3 v_position;
-layout (location = 1) in vec2 v_texcoords;
-layout (location = 2) in vec3 v_normal;
+layout (location = 2) in vec2 v_normal;
+layout (location = 3) in vec4 v_instance;
+layout (location = 4) in vec3 v_translation;
 
 out vec3 f_position;
 out vec2 f_texcoords;
 out vec3 f_normal;
 
-uniform mat4 m_proj;
-uniform mat4 m_view;
+// The data of the view, written by FrameUniforms
+layout(std140) uniform Frame {
+	mat4 m_proj;
+	mat4 m_view;
+	vec3 camera_pos;
+	vec4 clip_plane;
+	vec3 sun_direction;
+	vec3 sun_ambient;
+	vec3 sun_diffuse;
+};
+
 uniform mat4 m_model;
 
-uniform vec4 clip_plane;
+uniform bool clipmap;
+uniform sampler2DArray s_heightmap;
+uniform int heightmap_size;
+
+const float HEIGHT_STEPS = 256.0;
+const float EDGE_ALONG_X = 1.0;
+const float EDGE_ALONG_Z = 2.0;
+
+vec3 decodeNormal(vec2 e) {
+	// Unfold the octahedron, y being up
+	vec3 n = vec3(e.x, 1.0 - abs(e.x) - abs(e.y), e.y);
+	if(n.y < 0.0) {
+		n.xz = (1.0 - abs(n.zx)) * vec2(n.x >= 0.0 ? 1.0 : -1.0, n.z >= 0.0 ? 1.0 : -1.0);
+	}
+	return normalize(n);
+}
+
+// Returns the height of the clipmap sample at grid coordinate g. The heightmaps wrap around toroidally.
+float clipmapHeight(ivec2 g, int layer) {
+	return texelFetch(s_heightmap, ivec3(g & (heightmap_size - 1), layer), 0).r;
+}
 
 void main(void) {
-	vec4 world_pos =  m_model * vec4(v_position, 1.0);
+	vec3 position;
+	vec3 normal;
+	if(clipmap) {
+		ivec2 g = ivec2(v_instance.xy + v_position.xy);
+		float spacing = v_instance.z;
+		int layer = int(v_instance.w);
+		
+		// Odd vertices on the outer edge of a level lie halfway between two vertices of the coarser level,
+		// so they take the height of that edge to avoid cracks
+		float height;
+		if(v_position.z == EDGE_ALONG_X && (g.x & 1) == 1) {
+			height = 0.5 * (clipmapHeight(g - ivec2(1, 0), layer) + clipmapHeight(g + ivec2(1, 0), layer));
+		} else if(v_position.z == EDGE_ALONG_Z && (g.y & 1) == 1) {
+			height = 0.5 * (clipmapHeight(g - ivec2(0, 1), layer) + clipmapHeight(g + ivec2(0, 1), layer));
+		} else {
+			height = clipmapHeight(g, layer);
+		}
+		position = vec3(g.x * spacing, height, g.y * spacing);
+		
+		// Central differences of the neighbouring samples
+		normal = normalize(vec3(clipmapHeight(g - ivec2(1, 0), layer) - clipmapHeight(g + ivec2(1, 0), layer), 2.0 * spacing,
+				clipmapHeight(g - ivec2(0, 1), layer) - clipmapHeight(g + ivec2(0, 1), layer)));
+	} else {
+		position = vec3(v_position.x, v_position.y / HEIGHT_STEPS, v_position.z);
+		normal = decodeNormal(v_normal);
+	}
+	vec4 world_pos =  m_model * vec4(position + v_translation, 1.0);
 	
 	gl_ClipDistance[0] = dot(world_pos, clip_plane);
 	
 	gl_Position = m_proj * m_view * world_pos;
 	
-	f_position = v_position;
-	f_texcoords = v_texcoords;
-	f_normal = mat3(transpose(inverse(m_model))) * v_normal;
+	f_position = position;
+	f_texcoords = vec2(position.x, -position.z);
+	f_normal = mat3(transpose(inverse(m_model))) * normal;
 }
\ No newline at end of file
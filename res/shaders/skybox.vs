@@ -7,8 +7,16 @@ layout(location = 3) in vec3 v_color;
 
 out vec2 f_texcoords;
 
-uniform mat4 m_proj;
-uniform mat4 m_view;
+// The data of the view, written by FrameUniforms
+layout(std140) uniform Frame {
+	mat4 m_proj;
+	mat4 m_view;
+	vec3 camera_pos;
+	vec4 clip_plane;
+	vec3 sun_direction;
+	vec3 sun_ambient;
+	vec3 sun_diffuse;
+};
 
 void main()
 {
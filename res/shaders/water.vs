@@ -9,12 +9,18 @@ out vec2 f_texcoords;
 out vec3 to_camera;
 out vec3 from_light;
 
-uniform mat4 m_proj;
-uniform mat4 m_view;
-uniform mat4 m_model;
+// The data of the view, written by FrameUniforms
+layout(std140) uniform Frame {
+	mat4 m_proj;
+	mat4 m_view;
+	vec3 camera_pos;
+	vec4 clip_plane;
+	vec3 sun_direction;
+	vec3 sun_ambient;
+	vec3 sun_diffuse;
+};
 
-uniform vec3 camera_pos;
-uniform vec3 light_pos;
+uniform mat4 m_model;
 
 void main()
 {
@@ -23,7 +29,8 @@ void main()
 	gl_Position = clip_space;
 	
 	to_camera = camera_pos - world_pos.xyz;
-	from_light = world_pos.xyz - light_pos;
+	// The light is placed opposite to the direction of the sun
+	from_light = world_pos.xyz + sun_direction;
 	
 	f_texcoords = v_texcoords;
 }
\ No newline at end of file
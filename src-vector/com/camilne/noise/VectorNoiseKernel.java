@@ -0,0 +1,178 @@
+package com.camilne.noise;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Evaluates a lane-width of points at once with the incubating Vector API. Requires Java 16 or later started with
+ * --add-modules jdk.incubator.vector. SimplexNoise falls back to the ScalarNoiseKernel when this class cannot be loaded.
+ * <p>
+ * The floating point operations are done in the same order as in ScalarNoiseKernel, so the results are expected to
+ * match it exactly. SimplexNoise compares the two kernels on sample rows when it loads this one, and falls back to
+ * the scalar kernel if any point differs by more than 1e-12, which leaves room for a future JIT fusing multiplies
+ * and adds. Floors and the permutation lookups are done per lane because the tables are too small for gathers to
+ * pay off.
+ * <p>
+ * This source tree is compiled separately from src, against its classes, by the JDK that runs it. The incubating
+ * API changes between releases, and javac cannot compile it with --release for an older one.
+ * <pre>
+ * javac --add-modules jdk.incubator.vector -cp bin -d bin src-vector/com/camilne/noise/VectorNoiseKernel.java
+ * java --add-modules jdk.incubator.vector -cp bin:... com.camilne.main.Main
+ * </pre>
+ * Without the module at run time, or with -Dcom.camilne.noise.scalar=true, the scalar kernel is used.
+ */
+public class VectorNoiseKernel implements NoiseKernel {
+    
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONG_SPECIES = LongVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    
+    private static final double F2 = ScalarNoiseKernel.F2;
+    private static final double G2 = ScalarNoiseKernel.G2;
+    private static final double G2_2 = 2.0 * G2;
+    
+    // The lane numbers 0, 1, 2... as doubles.
+    private static final double[] IOTA = new double[LANES];
+    
+    // The per lane values that are computed scalar. One set per thread, since the generator threads share the kernel.
+    private final ThreadLocal<Lanes> lanes = new ThreadLocal<Lanes>() {
+	
+	@Override
+	protected Lanes initialValue() {
+	    return new Lanes();
+	}
+	
+    };
+    
+    static {
+	for(int i = 0; i < LANES; i++) {
+	    IOTA[i] = i;
+	}
+    }
+    
+    /**
+     * Creates the kernel
+     * @throws UnsupportedOperationException If the platform has no vectors of at least two doubles
+     */
+    public VectorNoiseKernel() {
+	if(LANES < 2 || LONG_SPECIES.length() != LANES) {
+	    throw new UnsupportedOperationException("No double vectors on this platform");
+	}
+    }
+    
+    @Override
+    public void addRow(int[] perm, int[] gradIndex, double[] dest, int offset, int count, double x, double stepX, double y, double amplitude) {
+	final Lanes l = lanes.get();
+	final double ys = y * F2;
+	final DoubleVector iota = DoubleVector.fromArray(SPECIES, IOTA, 0);
+	final DoubleVector yv = DoubleVector.broadcast(SPECIES, y);
+	final DoubleVector zero = DoubleVector.zero(SPECIES);
+	
+	int k = 0;
+	for(; k <= count - LANES; k += LANES) {
+	    final DoubleVector xv = iota.add(k).mul(stepX).add(x);
+	    
+	    // Skew the input space to determine which simplex cell each lane is in
+	    final DoubleVector s = xv.mul(F2).add(ys);
+	    final DoubleVector xs = xv.add(s);
+	    final DoubleVector ysk = yv.add(s);
+	    final DoubleVector fi = floor(xs, l.i);
+	    final DoubleVector fj = floor(ysk, l.j);
+	    
+	    // The x,y distances from the cell origin
+	    final DoubleVector t = fi.add(fj).mul(G2);
+	    final DoubleVector x0 = xv.sub(fi.sub(t));
+	    final DoubleVector y0 = yv.sub(fj.sub(t));
+	    
+	    // Offsets for the middle and last corners
+	    final VectorMask<Double> lower = x0.compare(VectorOperators.GT, y0);
+	    final DoubleVector x1 = x0.sub(1.0, lower).add(G2);
+	    final DoubleVector y1 = y0.sub(1.0, lower.not()).add(G2);
+	    final DoubleVector x2 = x0.sub(1.0).add(G2_2);
+	    final DoubleVector y2 = y0.sub(1.0).add(G2_2);
+	    
+	    // Hash the corners and look up their gradients one lane at a time
+	    lower.intoArray(l.lower, 0);
+	    for(int lane = 0; lane < LANES; lane++) {
+		final int ii = (int) l.i[lane] & 255;
+		final int jj = (int) l.j[lane] & 255;
+		final int i1 = l.lower[lane] ? 1 : 0;
+		final int gi0 = gradIndex[ii + perm[jj]];
+		final int gi1 = gradIndex[ii + i1 + perm[jj + 1 - i1]];
+		final int gi2 = gradIndex[ii + 1 + perm[jj + 1]];
+		l.gx0[lane] = ScalarNoiseKernel.GRAD_X[gi0];
+		l.gy0[lane] = ScalarNoiseKernel.GRAD_Y[gi0];
+		l.gx1[lane] = ScalarNoiseKernel.GRAD_X[gi1];
+		l.gy1[lane] = ScalarNoiseKernel.GRAD_Y[gi1];
+		l.gx2[lane] = ScalarNoiseKernel.GRAD_X[gi2];
+		l.gy2[lane] = ScalarNoiseKernel.GRAD_Y[gi2];
+	    }
+	    
+	    // Calculate the contribution from the three corners
+	    final DoubleVector n0 = corner(x0, y0, l.gx0, l.gy0, zero);
+	    final DoubleVector n1 = corner(x1, y1, l.gx1, l.gy1, zero);
+	    final DoubleVector n2 = corner(x2, y2, l.gx2, l.gy2, zero);
+	    
+	    final DoubleVector noise = n0.add(n1).add(n2).mul(70.0);
+	    DoubleVector.fromArray(SPECIES, dest, offset + k).add(noise.mul(amplitude)).intoArray(dest, offset + k);
+	}
+	
+	// Finish the points that do not fill a vector
+	for(; k < count; k++) {
+	    dest[offset + k] += ScalarNoiseKernel.noise(perm, gradIndex, x + k * stepX, y, ys) * amplitude;
+	}
+    }
+    
+    /**
+     * Returns the floor of every lane and stores the floors as longs in the specified array
+     * @param v
+     * @param dest
+     * @return
+     */
+    private static DoubleVector floor(DoubleVector v, long[] dest) {
+	// Conversion truncates towards zero, so step down the negative lanes that had a fraction
+	LongVector truncated = (LongVector) v.convert(VectorOperators.D2L, 0);
+	DoubleVector floor = (DoubleVector) truncated.convert(VectorOperators.L2D, 0);
+	final VectorMask<Double> fraction = v.compare(VectorOperators.LT, floor);
+	
+	truncated.sub(1L, fraction.cast(LONG_SPECIES)).intoArray(dest, 0);
+	return floor.sub(1.0, fraction);
+    }
+    
+    /**
+     * Returns the contribution of one corner of the simplex of every lane
+     * @param x The x distances from the corner
+     * @param y The y distances from the corner
+     * @param gx The x components of the gradients
+     * @param gy The y components of the gradients
+     * @param zero
+     * @return
+     */
+    private static DoubleVector corner(DoubleVector x, DoubleVector y, double[] gx, double[] gy, DoubleVector zero) {
+	final DoubleVector t = DoubleVector.broadcast(SPECIES, 0.5).sub(x.mul(x)).sub(y.mul(y));
+	final DoubleVector t2 = t.mul(t);
+	final DoubleVector dot = DoubleVector.fromArray(SPECIES, gx, 0).mul(x).add(DoubleVector.fromArray(SPECIES, gy, 0).mul(y));
+	
+	// Corners further than the radius do not contribute
+	return zero.blend(t2.mul(t2).mul(dot), t.compare(VectorOperators.GE, 0.0));
+    }
+    
+    /**
+     * The per lane scratch arrays of one thread
+     */
+    private static class Lanes {
+	final long[] i = new long[LANES];
+	final long[] j = new long[LANES];
+	final boolean[] lower = new boolean[LANES];
+	final double[] gx0 = new double[LANES];
+	final double[] gy0 = new double[LANES];
+	final double[] gx1 = new double[LANES];
+	final double[] gy1 = new double[LANES];
+	final double[] gx2 = new double[LANES];
+	final double[] gy2 = new double[LANES];
+    }
+    
+}
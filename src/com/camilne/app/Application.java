@@ -6,6 +6,11 @@ import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL13;
 import org.lwjgl.opengl.GLContext;
 
+import com.camilne.rendering.GPUProfiler;
+import com.camilne.rendering.GLResources;
+import com.camilne.rendering.GLState;
+import com.camilne.util.CPUProfiler;
+
 public class Application implements Runnable{
     
     private ApplicationListener applicationListener;
@@ -13,6 +18,14 @@ public class Application implements Runnable{
     
     public static final Window WINDOW = new Window();
     
+    // The stages of a frame timed by the CPUProfiler.
+    static final int PROFILE_UPDATE = CPUProfiler.register("Application.update");
+    private static final int PROFILE_FRAME = CPUProfiler.register("Application.frame");
+    private static final int PROFILE_WAIT = CPUProfiler.register("Application.awaitUpdates");
+    private static final int PROFILE_PUBLISH = CPUProfiler.register("Application.publish");
+    private static final int PROFILE_RENDER = CPUProfiler.register("Application.render");
+    private static final int PROFILE_SWAP = CPUProfiler.register("Application.swapBuffers");
+    
     /**
      * Creates a new Application
      * @param applicationListener The user-created ApplicationListener to receive callbacks
@@ -101,23 +114,26 @@ public class Application implements Runnable{
 	// Set the clear color
 	GL11.glClearColor(0, 0, 0, 1);
 	
+	// Nothing is known about the state of a new context
+	GLState.invalidate();
+	
 	// Setup viewport
-	GL11.glViewport(0, 0, WINDOW.getWidth(), WINDOW.getHeight());
+	GLState.viewport(0, 0, WINDOW.getWidth(), WINDOW.getHeight());
 	
 	// Setup depth testing
-	GL11.glEnable(GL11.GL_DEPTH_TEST);
+	GLState.setEnabled(GL11.GL_DEPTH_TEST, true);
 	
 	// Setup face culling (ccw)
 	GL11.glFrontFace(GL11.GL_CCW);
 	GL11.glCullFace(GL11.GL_BACK);
-	GL11.glEnable(GL11.GL_CULL_FACE);
+	GLState.setEnabled(GL11.GL_CULL_FACE, true);
 	
 	// Setup blending
-	GL11.glEnable(GL11.GL_BLEND);
-	GL11.glBlendFunc(GL11.GL_ONE, GL11.GL_ONE_MINUS_SRC_ALPHA);
+	GLState.setEnabled(GL11.GL_BLEND, true);
+	GLState.blendFunc(GL11.GL_ONE, GL11.GL_ONE_MINUS_SRC_ALPHA);
 	
 	// Enable MSAA
-	GL11.glEnable(GL13.GL_MULTISAMPLE);
+	GLState.setEnabled(GL13.GL_MULTISAMPLE, true);
     }
     
     /**
@@ -129,15 +145,24 @@ public class Application implements Runnable{
 	
 	// One second in nanoseconds
 	final long ONE_SECOND_IN_NS = 1000000000;
-	// The amount of time between frames in nanoseconds when running at 60 fps
-	final long DELTA_PER_FRAME_60_FPS_NS = ONE_SECOND_IN_NS / 60;
 	
-	// The time of this update
-	long nowTime = System.nanoTime();
-	// The time of the last update
-	long lastTime = nowTime;
+	// Paces the frames and divides the time between them into update steps
+	final FrameScheduler scheduler = new FrameScheduler(config.targetFPS, config.updateRate);
+	
+	// The time of this frame
+	long nowTime = scheduler.getFrameTime();
 	// The last time that the fps counter was updated
 	long timeOfLastFPS = nowTime;
+	
+	// Runs the updates of the next frame while this one renders, or null to update and render in turn
+	SimulationThread simulation = null;
+	if(config.pipelined) {
+	    Input.setQueued(true);
+	    simulation = new SimulationThread(applicationListener);
+	    simulation.start();
+	}
+	// The alpha that was left when the last updates were handed to the simulation thread, to render their state with
+	float handedOverAlpha = 0;
 	// The current fps
 	int fps = 0;
 	
@@ -150,17 +175,18 @@ public class Application implements Runnable{
 	    if(WINDOW.isClosing())
 		shouldRun = false;
 	    
-	    // Set the current time of this update
-	    nowTime = System.nanoTime();
-	    
-	    // If it is not time for the next frame update, then wait
-	    if(lastTime + DELTA_PER_FRAME_60_FPS_NS > nowTime)
-		continue;
+	    // Sleep until it is time for the next frame
+	    scheduler.waitForNextFrame();
+	    scheduler.beginFrame();
+	    nowTime = scheduler.getFrameTime();
+	    CPUProfiler.begin(PROFILE_FRAME);
 	    
 	    // Update the fps counter every second
 	    if(nowTime - timeOfLastFPS > ONE_SECOND_IN_NS) {
 		// Update the window title
-		WINDOW.setTitle(config.title + " --- FPS: " + fps);
+		WINDOW.setTitle(config.title + " --- FPS: " + fps + " --- VRAM: " + GLResources.getByteSize() / (1024 * 1024) + " MB"
+			+ " --- State changes: " + GLState.getIssuedCalls() + " issued, " + GLState.getAvoidedCalls() + " avoided");
+		GLState.resetCounters();
 		fps = 0;
 		timeOfLastFPS = nowTime;
 	    }
@@ -169,9 +195,6 @@ public class Application implements Runnable{
 	    // Make sure that this thread is the current OpenGL context
 	    GLContext.createFromCurrent();
 	    
-	    // Update input
-	    Input.update();
-	    
 	    // TODO: maybe migrate with ~MouseClickCallback
 	    // If the left mouse button is pressed, captures cursor
 	    if(WINDOW.getMouseButton(0) == GLFW.GLFW_PRESS)
@@ -180,28 +203,77 @@ public class Application implements Runnable{
 	    else if(WINDOW.getMouseButton(1) == GLFW.GLFW_PRESS)
 		WINDOW.setInputMode(GLFW.GLFW_CURSOR, GLFW.GLFW_CURSOR_NORMAL);
 	    
-	    // Updates the user application with delta time
-	    applicationListener.update((float)(nowTime - lastTime) / ONE_SECOND_IN_NS);
+	    // How far the rendered state is between its last two updates
+	    final float alpha;
+	    if(simulation != null) {
+		// Publish the updates of the last frame, then run the updates of the next one while this one renders
+		CPUProfiler.begin(PROFILE_WAIT);
+		simulation.awaitUpdates();
+		CPUProfiler.end(PROFILE_WAIT);
+		CPUProfiler.begin(PROFILE_PUBLISH);
+		applicationListener.publish();
+		CPUProfiler.end(PROFILE_PUBLISH);
+		// The published state is that of the updates handed over in the last frame, so it takes their alpha
+		alpha = handedOverAlpha;
+		
+		int steps = 0;
+		while(scheduler.step()) {
+		    steps++;
+		}
+		simulation.startUpdates(steps, scheduler.getStepDelta());
+		handedOverAlpha = scheduler.getAlpha();
+	    } else {
+		// Update input
+		Input.update();
+		
+		// Updates the user application in fixed steps for the time that passed
+		CPUProfiler.begin(PROFILE_UPDATE);
+		while(scheduler.step()) {
+		    applicationListener.update(scheduler.getStepDelta());
+		}
+		CPUProfiler.end(PROFILE_UPDATE);
+		CPUProfiler.begin(PROFILE_PUBLISH);
+		applicationListener.publish();
+		CPUProfiler.end(PROFILE_PUBLISH);
+		alpha = scheduler.getAlpha();
+	    }
 	    
 	    // Clear the screen
 	    GL11.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
 	    
 	    // Render the user application
-	    applicationListener.render();
+	    CPUProfiler.begin(PROFILE_RENDER);
+	    applicationListener.render(alpha);
+	    CPUProfiler.end(PROFILE_RENDER);
 	    
 	    // Update the window and input
+	    CPUProfiler.begin(PROFILE_SWAP);
 	    WINDOW.swapBuffers();
+	    CPUProfiler.end(PROFILE_SWAP);
 	    GLFW.glfwPollEvents();
-	    lastTime = nowTime;
+	    
+	    // Read the GPU times of a frame that the GPU has finished
+	    GPUProfiler.endFrame();
+	    
+	    // Delete the GL objects released during this frame, now that it has been submitted
+	    GLResources.processDeletions();
 	    
 	    final int error = GL11.glGetError();
 	    if(error != 0) {
 		System.err.println("GL Error: " + error);
 	    }
+	    CPUProfiler.end(PROFILE_FRAME);
+	}
+	
+	if(simulation != null) {
+	    simulation.stop();
 	}
 	
 	// Dispose the user application
 	applicationListener.dispose();
+	GPUProfiler.dispose();
+	GLResources.processDeletions();
+	GLResources.reportLeaks();
 	
 	// Cleanup GLFW
 	Input.dispose();
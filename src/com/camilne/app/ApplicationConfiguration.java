@@ -10,6 +10,12 @@ public class ApplicationConfiguration {
     public String title;
     public boolean vSyncEnabled;
     public boolean show;
+    // The most frames per second, or 0 to render as fast as possible.
+    public int targetFPS;
+    // The fixed update steps per second, or 0 to update once per frame with the elapsed time.
+    public int updateRate;
+    // Whether the updates run on a thread of their own, overlapping with the rendering of the previous frame.
+    public boolean pipelined;
     
     /**
      * Create a new ApplicationConfiguration with default settings
@@ -21,6 +27,9 @@ public class ApplicationConfiguration {
 	title = "";
 	vSyncEnabled = false;
 	show = true;
+	targetFPS = 60;
+	updateRate = 60;
+	pipelined = false;
     }
 
 }
@@ -3,8 +3,23 @@ package com.camilne.app;
 public interface ApplicationListener {
     
     public abstract void create();
+    /**
+     * Advances the application by a fixed step. In pipelined mode, this and the input callbacks run on the simulation
+     * thread, at the same time as render(), and must not use OpenGL
+     * @param delta The time of the step in seconds
+     */
     public abstract void update(float delta);
-    public abstract void render();
+    /**
+     * Copies the state that the last updates produced to the state that render() reads. Called on the OpenGL thread
+     * after the updates of a frame, while no update runs, so this is the only place that may read both
+     */
+    public abstract void publish();
+    /**
+     * Renders the application
+     * @param alpha How far the frame is between the last update and the next one, from 0 to 1,
+     * to interpolate the state of the last two updates with
+     */
+    public abstract void render(float alpha);
     public abstract void dispose();
     
     public abstract void mouseMoved(double xpos, double ypos, double dx, double dy);
@@ -0,0 +1,144 @@
+package com.camilne.app;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces the frames of the application and divides the time between them into fixed update steps.
+ * <p>
+ * The wait for the next frame parks the thread until shortly before the frame is due, and only spins for the
+ * last moment, where parking is too coarse to be on time. Frames are due at fixed intervals from the first one,
+ * so a late frame does not delay the following ones, unless the application fell more than a frame behind.
+ * <p>
+ * The elapsed time is accumulated and consumed in steps of the update rate. What is left over is less than a step,
+ * and its fraction of a step is the alpha to interpolate the rendered state between the last two updates with.
+ */
+public class FrameScheduler {
+    
+    private static final long ONE_SECOND_IN_NS = 1000000000;
+    // How early the wait stops parking and starts spinning. Parking commonly overshoots by about a millisecond.
+    private static final long SPIN_THRESHOLD_NS = 2000000;
+    // The most elapsed time that one frame accumulates, e.g. after the window was dragged or a breakpoint was hit.
+    private static final long MAX_FRAME_TIME_NS = ONE_SECOND_IN_NS / 4;
+    // The most updates per frame. When updates cannot keep up, the backlog is dropped instead of growing.
+    private static final int MAX_STEPS_PER_FRAME = 5;
+    
+    // The time between frames, or 0 if frames are not limited.
+    private long framePeriod;
+    // The time of an update step, or 0 to update once per frame with the elapsed time.
+    private long stepTime;
+    
+    // The time the next frame is due.
+    private long nextFrame;
+    // The time the current frame began.
+    private long frameTime;
+    private long frameDelta;
+    // The time that has not been consumed by updates yet.
+    private long accumulator;
+    private int steps;
+    
+    /**
+     * Creates a scheduler starting now
+     * @param targetFPS The most frames per second, or 0 to render as fast as possible
+     * @param updateRate The update steps per second, or 0 to update once per frame with the elapsed time
+     */
+    public FrameScheduler(int targetFPS, int updateRate) {
+	if(targetFPS < 0 || updateRate < 0) {
+	    throw new IllegalArgumentException("Rates must not be negative: " + targetFPS + " fps, " + updateRate + " updates per second");
+	}
+	
+	framePeriod = targetFPS == 0 ? 0 : ONE_SECOND_IN_NS / targetFPS;
+	stepTime = updateRate == 0 ? 0 : ONE_SECOND_IN_NS / updateRate;
+	
+	frameTime = System.nanoTime();
+	nextFrame = frameTime;
+    }
+    
+    /**
+     * Blocks until the next frame is due
+     */
+    public void waitForNextFrame() {
+	if(framePeriod == 0) {
+	    return;
+	}
+	
+	// More than a frame behind, so catching up would only render frames back to back
+	if(System.nanoTime() - nextFrame > framePeriod) {
+	    nextFrame = System.nanoTime();
+	}
+	
+	long remaining;
+	while((remaining = nextFrame - System.nanoTime()) > 0) {
+	    if(remaining > SPIN_THRESHOLD_NS) {
+		LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NS);
+	    } else {
+		Thread.yield();
+	    }
+	}
+	
+	nextFrame += framePeriod;
+    }
+    
+    /**
+     * Starts a frame, adding the time since the last one to the time to update
+     */
+    public void beginFrame() {
+	final long now = System.nanoTime();
+	frameDelta = Math.min(now - frameTime, MAX_FRAME_TIME_NS);
+	frameTime = now;
+	accumulator += frameDelta;
+	steps = 0;
+    }
+    
+    /**
+     * Consumes the time of one update step, if enough has accumulated
+     * @return Whether the application should update once more this frame, by getStepDelta()
+     */
+    public boolean step() {
+	if(stepTime == 0) {
+	    // One update per frame with all of the elapsed time
+	    if(steps == 0) {
+		steps++;
+		return true;
+	    }
+	    accumulator = 0;
+	    return false;
+	}
+	
+	if(accumulator < stepTime) {
+	    return false;
+	}
+	if(steps == MAX_STEPS_PER_FRAME) {
+	    accumulator %= stepTime;
+	    return false;
+	}
+	
+	accumulator -= stepTime;
+	steps++;
+	return true;
+    }
+    
+    /**
+     * Returns the time that an update step advances by, in seconds
+     * @return
+     */
+    public float getStepDelta() {
+	return (float) (stepTime == 0 ? frameDelta : stepTime) / ONE_SECOND_IN_NS;
+    }
+    
+    /**
+     * Returns how far the current frame is between the last update and the next one, from 0 to 1
+     * @return
+     */
+    public float getAlpha() {
+	return stepTime == 0 ? 1 : (float) accumulator / stepTime;
+    }
+    
+    /**
+     * Returns the time the current frame began, see System.nanoTime()
+     * @return
+     */
+    public long getFrameTime() {
+	return frameTime;
+    }
+    
+}
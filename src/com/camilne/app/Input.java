@@ -19,6 +19,11 @@ public class Input {
     // The ApplicationListener to call when input updates
     public static ApplicationListener applicationListener;
     
+    // The events waiting to be delivered on the simulation thread, or null to deliver them as they happen
+    private static InputQueue queue;
+    // Room for the events of many frames. A full queue drops events
+    private static final int QUEUE_CAPACITY = 1024;
+    
     // The location of the mouse in the last frame
     private static double lastMouseX;
     private static double lastMouseY;
@@ -29,7 +34,18 @@ public class Input {
 
 	    @Override
 	    public void invoke(long window, double xpos, double ypos) {
-		mouseMoved(xpos, ypos);
+		final double dx = xpos - lastMouseX;
+		final double dy = ypos - lastMouseY;
+		
+		// Save the positions to calculate deltas
+		lastMouseX = xpos;
+		lastMouseY = ypos;
+		
+		if(queue != null) {
+		    queue.offerMouseMoved(xpos, ypos, dx, dy);
+		} else {
+		    mouseMoved(xpos, ypos, dx, dy);
+		}
 	    }
 	    
 	};
@@ -41,10 +57,18 @@ public class Input {
 	    public void invoke(long window, int keycode, int scancode, int action, int mods) {
 		// If the key was pressed
 		if(action == GLFW.GLFW_PRESS) {
-		    keyPressed(keycode);
+		    if(queue != null) {
+			queue.offerKey(InputQueue.KEY_PRESSED, keycode);
+		    } else {
+			keyPressed(keycode);
+		    }
 		// If the key was released
 		} else if (action == GLFW.GLFW_RELEASE){
-		    keyReleased(keycode);
+		    if(queue != null) {
+			queue.offerKey(InputQueue.KEY_RELEASED, keycode);
+		    } else {
+			keyReleased(keycode);
+		    }
 		}
 	    }
 	    
@@ -66,6 +90,41 @@ public class Input {
 	lastKeys = keys;
     }
     
+    /**
+     * Sets whether the events are queued to be delivered by dispatchEvents() on another thread,
+     * instead of being delivered on the thread that polls them
+     * @param queued
+     */
+    static void setQueued(boolean queued) {
+	queue = queued ? new InputQueue(QUEUE_CAPACITY) : null;
+    }
+    
+    /**
+     * Delivers the queued events in the order they happened, updating the key states and notifying the user application.
+     * Must only be called by the one thread that consumes them
+     */
+    static void dispatchEvents() {
+	if(queue == null) {
+	    return;
+	}
+	
+	int slot;
+	while((slot = queue.peek()) != -1) {
+	    switch(queue.getType(slot)) {
+	    case InputQueue.MOUSE_MOVED:
+		mouseMoved(queue.getMouse(slot, 0), queue.getMouse(slot, 1), queue.getMouse(slot, 2), queue.getMouse(slot, 3));
+		break;
+	    case InputQueue.KEY_PRESSED:
+		keyPressed(queue.getKeycode(slot));
+		break;
+	    case InputQueue.KEY_RELEASED:
+		keyReleased(queue.getKeycode(slot));
+		break;
+	    }
+	    queue.remove();
+	}
+    }
+    
     /**
      * Releases memory used by GLFW Callbacks
      */
@@ -102,22 +161,20 @@ public class Input {
     }
     
     /**
-     * Called whenever the mouse moves (from the CursorPosCallback)
+     * Called whenever the mouse moves (from the CursorPosCallback, or from the queue)
      * @param xpos The x-position of the mouse
      * @param ypos The y-position of the mouse
+     * @param dx The distance moved along x since the last event
+     * @param dy The distance moved along y since the last event
      */
-    private static void mouseMoved(double xpos, double ypos) {
+    private static void mouseMoved(double xpos, double ypos, double dx, double dy) {
 	// Notify the user application
 	if(applicationListener != null)
-	    applicationListener.mouseMoved(xpos, ypos, xpos - lastMouseX, ypos - lastMouseY);
-	
-	// Save the positions to calculate deltas
-	lastMouseX = xpos;
-	lastMouseY = ypos;
+	    applicationListener.mouseMoved(xpos, ypos, dx, dy);
     }
     
     /**
-     * Called whenever the specified key is pressed (from the KeyCallback)
+     * Called whenever the specified key is pressed (from the KeyCallback, or from the queue)
      * @param keycode The specified key
      */
     private static void keyPressed(int keycode) {
@@ -130,7 +187,7 @@ public class Input {
     }
     
     /**
-     * Called whenever the specified key is released (from the KeyCallback)
+     * Called whenever the specified key is released (from the KeyCallback, or from the queue)
      * @param keycode The specified key
      */
     private static void keyReleased(int keycode) {
@@ -0,0 +1,140 @@
+package com.camilne.app;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue of input events from the thread that polls GLFW to the thread that updates the application.
+ * It is lock free for one producer and one consumer: each side only advances its own index, and does so with an
+ * ordered write after it is done with the slot, so the other side never sees a slot that is half written or half read.
+ * The events are stored in parallel arrays that are allocated once.
+ */
+class InputQueue {
+    
+    // The types of the events.
+    static final int MOUSE_MOVED = 0;
+    static final int KEY_PRESSED = 1;
+    static final int KEY_RELEASED = 2;
+    
+    private final int capacity;
+    private final int mask;
+    private final int[] types;
+    private final int[] keycodes;
+    // The x, y, dx and dy of every mouse event.
+    private final double[] mouse;
+    
+    // The number of events ever removed, written by the consumer.
+    private final AtomicLong head = new AtomicLong();
+    // The number of events ever added, written by the producer.
+    private final AtomicLong tail = new AtomicLong();
+    
+    /**
+     * Creates an empty queue
+     * @param capacity The most events that can wait in the queue, a power of two
+     */
+    InputQueue(int capacity) {
+	if(capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+	    throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+	}
+	
+	this.capacity = capacity;
+	mask = capacity - 1;
+	types = new int[capacity];
+	keycodes = new int[capacity];
+	mouse = new double[capacity * 4];
+    }
+    
+    /**
+     * Adds a key event. Must only be called by the producer
+     * @param type KEY_PRESSED or KEY_RELEASED
+     * @param keycode
+     * @return false if the queue is full and the event was dropped
+     */
+    boolean offerKey(int type, int keycode) {
+	final long index = tail.get();
+	if(index - head.get() == capacity) {
+	    return false;
+	}
+	
+	final int slot = (int) index & mask;
+	types[slot] = type;
+	keycodes[slot] = keycode;
+	tail.lazySet(index + 1);
+	
+	return true;
+    }
+    
+    /**
+     * Adds a mouse movement. Must only be called by the producer
+     * @param x
+     * @param y
+     * @param dx
+     * @param dy
+     * @return false if the queue is full and the event was dropped
+     */
+    boolean offerMouseMoved(double x, double y, double dx, double dy) {
+	final long index = tail.get();
+	if(index - head.get() == capacity) {
+	    return false;
+	}
+	
+	final int slot = (int) index & mask;
+	types[slot] = MOUSE_MOVED;
+	mouse[slot * 4] = x;
+	mouse[slot * 4 + 1] = y;
+	mouse[slot * 4 + 2] = dx;
+	mouse[slot * 4 + 3] = dy;
+	tail.lazySet(index + 1);
+	
+	return true;
+    }
+    
+    /**
+     * Returns the slot of the oldest event, which stays in the queue until remove() is called.
+     * Must only be called by the consumer
+     * @return The slot, or -1 if the queue is empty
+     */
+    int peek() {
+	final long index = head.get();
+	if(index == tail.get()) {
+	    return -1;
+	}
+	
+	return (int) index & mask;
+    }
+    
+    /**
+     * Removes the oldest event, freeing its slot for the producer. Must only be called by the consumer
+     */
+    void remove() {
+	head.lazySet(head.get() + 1);
+    }
+    
+    /**
+     * Returns the type of the event in the specified slot
+     * @param slot
+     * @return
+     */
+    int getType(int slot) {
+	return types[slot];
+    }
+    
+    /**
+     * Returns the key of the key event in the specified slot
+     * @param slot
+     * @return
+     */
+    int getKeycode(int slot) {
+	return keycodes[slot];
+    }
+    
+    /**
+     * Returns a value of the mouse event in the specified slot
+     * @param slot
+     * @param index 0 for x, 1 for y, 2 for dx and 3 for dy
+     * @return
+     */
+    double getMouse(int slot, int index) {
+	return mouse[slot * 4 + index];
+    }
+    
+}
@@ -0,0 +1,114 @@
+package com.camilne.app;
+
+import java.util.concurrent.Semaphore;
+
+import com.camilne.util.CPUProfiler;
+
+/**
+ * Runs the updates of the application on a thread of their own, so that the updates of the next frame overlap with
+ * the rendering of the current one on the OpenGL thread. The two threads meet once per frame: the OpenGL thread waits
+ * for the updates it handed over in the last frame, lets the application publish their result for rendering while
+ * nothing updates, and hands over the updates of the next frame. The input events that the OpenGL thread queued are
+ * delivered on this thread before the updates.
+ */
+class SimulationThread implements Runnable {
+    
+    private final ApplicationListener applicationListener;
+    private final Thread thread;
+    
+    // Released by the OpenGL thread to start the updates of a frame, and by this thread when they are done.
+    // Each release makes everything written before it visible to the thread that acquires it.
+    private final Semaphore started = new Semaphore(0);
+    private final Semaphore finished = new Semaphore(1);
+    
+    // The updates to run, written by the OpenGL thread before started is released.
+    private int steps;
+    private float stepDelta;
+    private boolean stopping;
+    // The error that ended the thread, rethrown on the OpenGL thread.
+    private Throwable error;
+    
+    /**
+     * Creates the thread without starting it
+     * @param applicationListener The application to update
+     */
+    SimulationThread(ApplicationListener applicationListener) {
+	this.applicationListener = applicationListener;
+	
+	thread = new Thread(this, "Simulation");
+	thread.setDaemon(true);
+    }
+    
+    /**
+     * Starts the thread, which waits for the first updates
+     */
+    void start() {
+	thread.start();
+    }
+    
+    /**
+     * Waits until the updates that were handed over last are done. Returns at once if there were none
+     * @throws IllegalStateException if an update threw
+     */
+    void awaitUpdates() {
+	finished.acquireUninterruptibly();
+	
+	if(error != null) {
+	    throw new IllegalStateException("The simulation thread failed", error);
+	}
+    }
+    
+    /**
+     * Hands over the updates of the next frame. Must follow awaitUpdates()
+     * @param steps The number of updates
+     * @param stepDelta The time each update advances by, in seconds
+     */
+    void startUpdates(int steps, float stepDelta) {
+	this.steps = steps;
+	this.stepDelta = stepDelta;
+	started.release();
+    }
+    
+    /**
+     * Waits for the current updates and ends the thread
+     */
+    void stop() {
+	finished.acquireUninterruptibly();
+	stopping = true;
+	started.release();
+	
+	try {
+	    thread.join();
+	} catch(InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+    
+    @Override
+    public void run() {
+	while(true) {
+	    started.acquireUninterruptibly();
+	    if(stopping) {
+		return;
+	    }
+	    
+	    try {
+		Input.update();
+		Input.dispatchEvents();
+		
+		CPUProfiler.begin(Application.PROFILE_UPDATE);
+		for(int i = 0; i < steps; i++) {
+		    applicationListener.update(stepDelta);
+		}
+		CPUProfiler.end(Application.PROFILE_UPDATE);
+	    } catch(Throwable t) {
+		error = t;
+		finished.release();
+		return;
+	    }
+	    
+	    finished.release();
+	}
+    }
+    
+}
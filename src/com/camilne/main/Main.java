@@ -1,15 +1,21 @@
 package com.camilne.main;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.lwjgl.glfw.GLFW;
+import org.lwjgl.util.vector.Vector3f;
 
 import com.camilne.app.Application;
 import com.camilne.app.ApplicationConfiguration;
 import com.camilne.app.ApplicationListener;
 import com.camilne.app.Input;
 import com.camilne.rendering.Camera;
+import com.camilne.rendering.GPUProfiler;
 import com.camilne.rendering.PerspectiveCamera;
 import com.camilne.rendering.Shader;
 import com.camilne.rendering.Texture;
+import com.camilne.util.CPUProfiler;
 import com.camilne.world.World;
 
 public class Main implements ApplicationListener{
@@ -18,9 +24,28 @@ public class Main implements ApplicationListener{
     private float speed;
     private float sensitivity;
     private World world;
+    // The position of the camera before and after the last update, to draw it in between.
+    private Vector3f previousPosition;
+    private Vector3f currentPosition;
+    // Whether the clipmap should be rendered, applied to the world when it is published.
+    private boolean clipmapEnabled;
+    // Whether the GPU time of every pass is measured and logged, applied when published.
+    private boolean profilingEnabled;
+    // When the CPU profiler started recording the trace that is written when it stops.
+    private long traceStart;
+    
+    // The state published for rendering, which the updates of the next frame do not touch.
+    private PerspectiveCamera renderCamera;
+    private Vector3f renderPreviousPosition;
+    private Vector3f renderCurrentPosition;
     
     private Main() {
 	camera = null;
+	previousPosition = new Vector3f();
+	currentPosition = new Vector3f();
+	renderCamera = null;
+	renderPreviousPosition = new Vector3f();
+	renderCurrentPosition = new Vector3f();
 	speed = 5f;
 	sensitivity = 0.2f;
 	world = null;
@@ -54,13 +79,20 @@ public class Main implements ApplicationListener{
 	Texture.setPath("res/textures/");
 	
 	camera = new PerspectiveCamera(65.0f, 1280.0f/720.0f, 0.01f, 1000f);
+	previousPosition.set(camera.getPosition());
+	currentPosition.set(camera.getPosition());
+	renderCamera = new PerspectiveCamera(camera);
 	
-	world = new World();
+	world = new World(new File("save"));
+	
+	// Log the GPU times about every five seconds while profiling
+	GPUProfiler.setLogInterval(300);
     }
 
     @Override
     public void update(float delta) {
 	final float speedThisFrame = speed * delta;
+	previousPosition.set(camera.getPosition());
 	
 	// Move forward
 	if (Input.isKeyPressed(GLFW.GLFW_KEY_W))
@@ -82,16 +114,38 @@ public class Main implements ApplicationListener{
 	    camera.move(Camera.AXIS_Y, -speedThisFrame);
 	
 	camera.update();
-	world.update(camera, delta);
+	world.update(delta);
+	currentPosition.set(camera.getPosition());
+    }
+
+    @Override
+    public void publish() {
+	renderCamera.set(camera);
+	renderPreviousPosition.set(previousPosition);
+	renderCurrentPosition.set(currentPosition);
+	
+	if(clipmapEnabled != world.isClipmapEnabled())
+	    world.setClipmapEnabled(clipmapEnabled);
+	world.publish();
+	GPUProfiler.setEnabled(profilingEnabled);
     }
 
     @Override
-    public void render() {	
-	world.render(camera);
+    public void render(float alpha) {
+	// Draw the camera between its last two updates, so that it moves smoothly at any frame rate
+	final Vector3f position = renderCamera.getPosition();
+	position.x = renderPreviousPosition.x + (renderCurrentPosition.x - renderPreviousPosition.x) * alpha;
+	position.y = renderPreviousPosition.y + (renderCurrentPosition.y - renderPreviousPosition.y) * alpha;
+	position.z = renderPreviousPosition.z + (renderCurrentPosition.z - renderPreviousPosition.z) * alpha;
+	renderCamera.update();
+	
+	world.stream(renderCamera);
+	world.render(renderCamera);
     }
 
     @Override
     public void dispose() {
+	world.dispose();
     }
 
     @Override
@@ -104,10 +158,39 @@ public class Main implements ApplicationListener{
     public void keyPressed(int keycode) {
 	if(keycode == GLFW.GLFW_KEY_ESCAPE)
 	    System.exit(0);
+	// Switch between the region and clipmap terrain, which creates it on the OpenGL thread when published
+	if(keycode == GLFW.GLFW_KEY_C)
+	    clipmapEnabled = !clipmapEnabled;
+	// Start or stop measuring the GPU time of every pass
+	if(keycode == GLFW.GLFW_KEY_P)
+	    profilingEnabled = !profilingEnabled;
+	// Start recording a CPU trace, or stop and write it for chrome://tracing
+	if(keycode == GLFW.GLFW_KEY_T)
+	    toggleTrace();
     }
 
     @Override
     public void keyReleased(int keycode) {
     }
+    
+    /**
+     * Starts recording the CPU profiler, or stops it and writes what it recorded since it started to a file
+     */
+    private void toggleTrace() {
+	if(!CPUProfiler.isEnabled()) {
+	    traceStart = CPUProfiler.now();
+	    CPUProfiler.setEnabled(true);
+	    return;
+	}
+	
+	CPUProfiler.setEnabled(false);
+	final File file = new File("trace-" + System.currentTimeMillis() + ".json");
+	try {
+	    CPUProfiler.write(file, traceStart, CPUProfiler.now());
+	    System.out.println("Wrote " + file.getAbsolutePath());
+	} catch(IOException e) {
+	    e.printStackTrace();
+	}
+    }
 
 }
@@ -0,0 +1,23 @@
+package com.camilne.noise;
+
+/**
+ * Evaluates 2D simplex noise for a row of evenly spaced points of one octave.
+ * Implementations read the octave from flattened primitive tables, see SimplexNoise_octave.getPermTable().
+ */
+public interface NoiseKernel {
+    
+    /**
+     * Adds amplitude * noise(x + k * stepX, y) to dest[offset + k] for every k from 0 to count - 1
+     * @param perm The permutation table of the octave
+     * @param gradIndex The gradient index table of the octave
+     * @param dest
+     * @param offset
+     * @param count
+     * @param x The x coordinate of the first point
+     * @param stepX The distance between neighbouring points
+     * @param y The y coordinate of every point
+     * @param amplitude
+     */
+    public void addRow(int[] perm, int[] gradIndex, double[] dest, int offset, int count, double x, double stepX, double y, double amplitude);
+    
+}
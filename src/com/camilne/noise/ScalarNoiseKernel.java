@@ -0,0 +1,95 @@
+package com.camilne.noise;
+
+/**
+ * Evaluates one point at a time. Matches SimplexNoise_octave.noise(double, double) up to the last bits,
+ * and is used wherever the vector kernel is not available.
+ */
+public class ScalarNoiseKernel implements NoiseKernel {
+    
+    // Skewing and unskewing factors for 2 dimensions
+    static final double F2 = 0.5 * (Math.sqrt(3.0) - 1.0);
+    static final double G2 = (3.0 - Math.sqrt(3.0)) / 6.0;
+    
+    // The x and y components of the 12 gradients of SimplexNoise_octave.
+    static final double[] GRAD_X = { 1, -1, 1, -1, 1, -1, 1, -1, 0, 0, 0, 0 };
+    static final double[] GRAD_Y = { 1, 1, -1, -1, 0, 0, 0, 0, 1, -1, 1, -1 };
+    
+    @Override
+    public void addRow(int[] perm, int[] gradIndex, double[] dest, int offset, int count, double x, double stepX, double y, double amplitude) {
+	// The y part of the skew is the same for every point of the row
+	final double ys = y * F2;
+	
+	for(int k = 0; k < count; k++) {
+	    dest[offset + k] += noise(perm, gradIndex, x + k * stepX, y, ys) * amplitude;
+	}
+    }
+    
+    /**
+     * Evaluates one point. See SimplexNoise_octave.noise(double, double) for the algorithm
+     * @param perm
+     * @param gradIndex
+     * @param xin
+     * @param yin
+     * @param ys The y part of the skew, yin * F2
+     * @return
+     */
+    static double noise(int[] perm, int[] gradIndex, double xin, double yin, double ys) {
+	// Skew the input space to determine which simplex cell we're in
+	final double s = xin * F2 + ys;
+	final int i = fastfloor(xin + s);
+	final int j = fastfloor(yin + s);
+	final double t = (i + j) * G2;
+	// The x,y distances from the cell origin
+	final double x0 = xin - (i - t);
+	final double y0 = yin - (j - t);
+	
+	// Offsets for the middle corner of the simplex in (i,j) coords
+	final int i1 = x0 > y0 ? 1 : 0;
+	final int j1 = 1 - i1;
+	final double x1 = x0 - i1 + G2;
+	final double y1 = y0 - j1 + G2;
+	final double x2 = x0 - 1.0 + 2.0 * G2;
+	final double y2 = y0 - 1.0 + 2.0 * G2;
+	
+	// Work out the hashed gradient indices of the three simplex corners
+	final int ii = i & 255;
+	final int jj = j & 255;
+	final int gi0 = gradIndex[ii + perm[jj]];
+	final int gi1 = gradIndex[ii + i1 + perm[jj + j1]];
+	final int gi2 = gradIndex[ii + 1 + perm[jj + 1]];
+	
+	// Calculate the contribution from the three corners
+	double n0 = 0;
+	double t0 = 0.5 - x0 * x0 - y0 * y0;
+	if(t0 >= 0) {
+	    t0 *= t0;
+	    n0 = t0 * t0 * (GRAD_X[gi0] * x0 + GRAD_Y[gi0] * y0);
+	}
+	double n1 = 0;
+	double t1 = 0.5 - x1 * x1 - y1 * y1;
+	if(t1 >= 0) {
+	    t1 *= t1;
+	    n1 = t1 * t1 * (GRAD_X[gi1] * x1 + GRAD_Y[gi1] * y1);
+	}
+	double n2 = 0;
+	double t2 = 0.5 - x2 * x2 - y2 * y2;
+	if(t2 >= 0) {
+	    t2 *= t2;
+	    n2 = t2 * t2 * (GRAD_X[gi2] * x2 + GRAD_Y[gi2] * y2);
+	}
+	
+	// The result is scaled to return values in the interval [-1,1].
+	return 70.0 * (n0 + n1 + n2);
+    }
+    
+    /**
+     * A lot faster than (int)Math.floor(x)
+     * @param x
+     * @return
+     */
+    static int fastfloor(double x) {
+	final int xi = (int) x;
+	return x < xi ? xi - 1 : xi;
+    }
+    
+}
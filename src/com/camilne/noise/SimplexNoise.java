@@ -1,13 +1,27 @@
 package com.camilne.noise;
 
+import java.util.Arrays;
 import java.util.Random;
 
 public class SimplexNoise {
     
     private SimplexNoise_octave[] octaves;
     private double[] frequencies;
+    // The reciprocals of the frequencies. Exact because the frequencies are powers of two.
+    private double[] inverseFrequencies;
     private double[] amplitudes;
     private double largestFeature;
+    // The factor of getScaledNoise, which depends only on largestFeature.
+    private double scale;
+    
+    // How far the results of the vector kernel may be from those of the scalar kernel, and the octave they are compared on.
+    private static final double KERNEL_TOLERANCE = 1e-12;
+    private static final int KERNEL_CHECK_SEED = 12345;
+    // The kernel of the grid methods. The vector kernel is used when it was compiled, jdk.incubator.vector is available
+    // and it matches the scalar kernel.
+    private static final NoiseKernel KERNEL = createKernel();
+    // Sums the octaves of float grids in double precision.
+    private static final ThreadLocal<double[]> gridScratch = new ThreadLocal<double[]>();
     
     public SimplexNoise(final double largestFeature, final double persistence) {
 	this(largestFeature, persistence, new Random().nextInt());
@@ -15,11 +29,13 @@ public class SimplexNoise {
     
     public SimplexNoise(final double largestFeature, final double persistence, final int seed) {
 	this.largestFeature = largestFeature;
+	this.scale = Math.log(Math.pow(10, largestFeature));
 	
 	final int numberOfOctaves = 2 * (int)Math.ceil(Math.log10(largestFeature)/Math.log10(2));
 	
 	octaves = new SimplexNoise_octave[numberOfOctaves];
 	frequencies = new double[numberOfOctaves];
+	inverseFrequencies = new double[numberOfOctaves];
 	amplitudes = new double[numberOfOctaves];
 	
 	Random rand = new Random(seed);
@@ -27,22 +43,177 @@ public class SimplexNoise {
 	for(int i = 0; i < numberOfOctaves; i++) {
 	    octaves[i] = new SimplexNoise_octave(rand.nextInt());
 	    frequencies[i] = Math.pow(2, i);
+	    inverseFrequencies[i] = 1 / frequencies[i];
 	    amplitudes[i] = Math.pow(persistence, numberOfOctaves - 1);
 	}
     }
     
+    /**
+     * Creates the vector kernel if it can be loaded and agrees with the scalar kernel, or the scalar kernel otherwise.
+     * Set the system property com.camilne.noise.scalar to true to always use the scalar kernel.
+     * @return
+     */
+    private static NoiseKernel createKernel() {
+	final NoiseKernel scalar = new ScalarNoiseKernel();
+	if(!Boolean.getBoolean("com.camilne.noise.scalar")) {
+	    try {
+		final NoiseKernel vector = (NoiseKernel) Class.forName("com.camilne.noise.VectorNoiseKernel").getDeclaredConstructor().newInstance();
+		if(matches(vector, scalar)) {
+		    return vector;
+		}
+		System.err.println("The vector noise kernel does not match the scalar kernel, using the scalar kernel");
+	    } catch(Exception | LinkageError e) {
+		// Not compiled, the module is missing, or the platform has no double vectors
+	    }
+	}
+	
+	return scalar;
+    }
+    
+    /**
+     * Checks that a kernel computes the same rows as the reference kernel, within KERNEL_TOLERANCE.
+     * The rows are not a multiple of any vector width long, so that the remainder loops are covered too,
+     * and cross the axes, so that negative coordinates are floored correctly.
+     * @param kernel The kernel to check
+     * @param reference The kernel whose results are correct
+     * @return
+     */
+    private static boolean matches(final NoiseKernel kernel, final NoiseKernel reference) {
+	final SimplexNoise_octave octave = new SimplexNoise_octave(KERNEL_CHECK_SEED);
+	final int count = 67;
+	final double[] expected = new double[count];
+	final double[] actual = new double[count];
+	
+	for(int row = 0; row < 16; row++) {
+	    final double y = -7.3 + row * 0.917;
+	    final double x = -5.1 - row * 0.33;
+	    final double step = 0.173 + row * 0.011;
+	    Arrays.fill(expected, 0);
+	    Arrays.fill(actual, 0);
+	    reference.addRow(octave.getPermTable(), octave.getGradTable(), expected, 0, count, x, step, y, 1);
+	    kernel.addRow(octave.getPermTable(), octave.getGradTable(), actual, 0, count, x, step, y, 1);
+	    
+	    for(int i = 0; i < count; i++) {
+		if(!(Math.abs(actual[i] - expected[i]) <= KERNEL_TOLERANCE)) {
+		    return false;
+		}
+	    }
+	}
+	
+	return true;
+    }
+    
     public double getNoise(final double x, final double y) {
 	double noise = 0;
 	
 	for(int i = 0; i < octaves.length; i++) {
-	    noise += octaves[i].noise(x / frequencies[i], y / frequencies[i]) * amplitudes[i];
+	    noise += octaves[i].noise(x * inverseFrequencies[i], y * inverseFrequencies[i]) * amplitudes[i];
 	}
 	
 	return noise;
     }
     
     public double getScaledNoise(final double x, final double y) {
-	return Math.log(Math.pow(10, largestFeature)) * getNoise(x, y);
+	return scale * getNoise(x, y);
     }
-
+    
+    /**
+     * Fills the specified array with the noise of a regular grid. The point (column, row) is stored at dest[row * width + column]
+     * and has the coordinates (originX + column * stepX, originY + row * stepY). Equal to getNoise at every point up to rounding.
+     * @param dest An array of at least width * height elements
+     * @param originX
+     * @param originY
+     * @param stepX The distance between neighbouring columns
+     * @param stepY The distance between neighbouring rows
+     * @param width The number of columns
+     * @param height The number of rows
+     */
+    public void getNoiseGrid(final double[] dest, final double originX, final double originY, final double stepX, final double stepY, final int width, final int height) {
+	fillGrid(dest, null, 1, originX, originY, stepX, stepY, width, height);
+    }
+    
+    /**
+     * Fills the specified array with the noise of a regular grid. See getNoiseGrid(double[], ...)
+     * @param dest An array of at least width * height elements
+     * @param originX
+     * @param originY
+     * @param stepX
+     * @param stepY
+     * @param width
+     * @param height
+     */
+    public void getNoiseGrid(final float[] dest, final double originX, final double originY, final double stepX, final double stepY, final int width, final int height) {
+	fillGrid(null, dest, 1, originX, originY, stepX, stepY, width, height);
+    }
+    
+    /**
+     * Fills the specified array with the scaled noise of a regular grid. See getNoiseGrid(double[], ...)
+     * @param dest An array of at least width * height elements
+     * @param originX
+     * @param originY
+     * @param stepX
+     * @param stepY
+     * @param width
+     * @param height
+     */
+    public void getScaledNoiseGrid(final double[] dest, final double originX, final double originY, final double stepX, final double stepY, final int width, final int height) {
+	fillGrid(dest, null, scale, originX, originY, stepX, stepY, width, height);
+    }
+    
+    /**
+     * Fills the specified array with the scaled noise of a regular grid. See getNoiseGrid(double[], ...)
+     * @param dest An array of at least width * height elements
+     * @param originX
+     * @param originY
+     * @param stepX
+     * @param stepY
+     * @param width
+     * @param height
+     */
+    public void getScaledNoiseGrid(final float[] dest, final double originX, final double originY, final double stepX, final double stepY, final int width, final int height) {
+	fillGrid(null, dest, scale, originX, originY, stepX, stepY, width, height);
+    }
+    
+    /**
+     * Returns the kernel that evaluates the grids
+     * @return
+     */
+    public static NoiseKernel getKernel() {
+	return KERNEL;
+    }
+    
+    /**
+     * Fills whichever of the arrays is not null with the noise of a regular grid multiplied by the specified factor
+     */
+    private void fillGrid(final double[] doubles, final float[] floats, final double factor, final double originX, final double originY, final double stepX, final double stepY, final int width, final int height) {
+	final int count = width * height;
+	double[] sums = doubles;
+	if(sums == null) {
+	    // Sum float grids in double precision like getNoise
+	    sums = gridScratch.get();
+	    if(sums == null || sums.length < count) {
+		sums = new double[count];
+		gridScratch.set(sums);
+	    }
+	}
+	Arrays.fill(sums, 0, count, 0);
+	
+	// Add the octaves to one row at a time, so that the row stays in the cache
+	for(int row = 0; row < height; row++) {
+	    final double y = originY + row * stepY;
+	    for(int i = 0; i < octaves.length; i++) {
+		final double inverseFrequency = inverseFrequencies[i];
+		KERNEL.addRow(octaves[i].getPermTable(), octaves[i].getGradTable(), sums, row * width, width, originX * inverseFrequency, stepX * inverseFrequency, y * inverseFrequency, amplitudes[i]);
+	    }
+	}
+	
+	for(int i = 0; i < count; i++) {
+	    if(floats != null) {
+		floats[i] = (float)(factor * sums[i]);
+	    } else {
+		sums[i] *= factor;
+	    }
+	}
+    }
+    
 }
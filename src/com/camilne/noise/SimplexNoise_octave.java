@@ -81,6 +81,9 @@ public class SimplexNoise_octave { // Simplex noise in 2D, 3D and 4D
     // length
     private short perm[] = new short[512];
     private short permMod12[] = new short[512];
+    // The same tables as ints, for the NoiseKernels
+    private int permTable[] = new int[512];
+    private int gradTable[] = new int[512];
 
     public SimplexNoise_octave(int seed) {
 	p = p_supply.clone();
@@ -107,9 +110,21 @@ public class SimplexNoise_octave { // Simplex noise in 2D, 3D and 4D
 	for (int i = 0; i < 512; i++) {
 	    perm[i] = p[i & 255];
 	    permMod12[i] = (short) (perm[i] % 12);
+	    permTable[i] = perm[i];
+	    gradTable[i] = permMod12[i];
 	}
     }
 
+    // The permutation table, indexed like perm in noise()
+    int[] getPermTable() {
+	return permTable;
+    }
+
+    // The gradient index table, indexed like permMod12 in noise()
+    int[] getGradTable() {
+	return gradTable;
+    }
+
     // Skewing and unskewing factors for 2, 3, and 4 dimensions
     private static final double F2 = 0.5 * (Math.sqrt(3.0) - 1.0);
     private static final double G2 = (3.0 - Math.sqrt(3.0)) / 6.0;
@@ -0,0 +1,315 @@
+package com.camilne.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL31;
+
+/**
+ * One large OpenGL buffer that hands out ranges of itself, so that meshes can be added and removed without creating
+ * or deleting buffer objects. Ranges are allocated first fit from a list of free blocks ordered by offset, and freed
+ * blocks are merged with their free neighbours. Every size and offset is a multiple of the unit of the arena,
+ * e.g. the size of a vertex so that offsets can be turned into base vertices.
+ */
+public class BufferArena {
+    
+    private int id;
+    private long size;
+    private int unit;
+    
+    // The free blocks ordered by offset. Adjacent blocks are always merged.
+    private long[] freeOffsets;
+    private long[] freeSizes;
+    private int freeCount;
+    
+    private long usedBytes;
+    private int allocationCount;
+    
+    /**
+     * Creates an arena of the specified size with all of it free. Must be called on the OpenGL thread.
+     * @param size The size of the buffer in bytes, rounded up to the unit
+     * @param unit The granularity of the ranges in bytes
+     */
+    public BufferArena(long size, int unit) {
+	if(unit <= 0) {
+	    throw new IllegalArgumentException("Unit must be positive: " + unit);
+	}
+	
+	this.unit = unit;
+	this.size = roundUp(Math.max(size, unit));
+	freeOffsets = new long[16];
+	freeSizes = new long[16];
+	
+	id = GLResources.track(GLResources.Type.BUFFER, GL15.glGenBuffers(), this.size, "BufferArena");
+	GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, id);
+	GL15.glBufferData(GL31.GL_COPY_WRITE_BUFFER, this.size, GL15.GL_STATIC_DRAW);
+	GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+	
+	insertFree(0, 0, this.size);
+    }
+    
+    /**
+     * Reserves a range of the specified size
+     * @param bytes The size of the range, rounded up to the unit
+     * @return The offset of the range in bytes, or -1 if no free block is large enough
+     */
+    public long allocate(long bytes) {
+	bytes = roundUp(bytes);
+	for(int i = 0; i < freeCount; i++) {
+	    if(freeSizes[i] >= bytes) {
+		final long offset = freeOffsets[i];
+		if(freeSizes[i] == bytes) {
+		    removeFree(i);
+		} else {
+		    freeOffsets[i] += bytes;
+		    freeSizes[i] -= bytes;
+		}
+		
+		usedBytes += bytes;
+		allocationCount++;
+		
+		return offset;
+	    }
+	}
+	
+	return -1;
+    }
+    
+    /**
+     * Returns a range to the free blocks
+     * @param offset The offset that allocate() returned
+     * @param bytes The size that the range was allocated with
+     */
+    public void free(long offset, long bytes) {
+	bytes = roundUp(bytes);
+	final int index = findFree(offset);
+	// The blocks around the range must not overlap it
+	if((index > 0 && freeOffsets[index - 1] + freeSizes[index - 1] > offset) || (index < freeCount && offset + bytes > freeOffsets[index])) {
+	    throw new IllegalArgumentException("Range " + offset + " of " + bytes + " bytes is not allocated");
+	}
+	
+	usedBytes -= bytes;
+	allocationCount--;
+	
+	final boolean mergePrevious = index > 0 && freeOffsets[index - 1] + freeSizes[index - 1] == offset;
+	final boolean mergeNext = index < freeCount && offset + bytes == freeOffsets[index];
+	if(mergePrevious && mergeNext) {
+	    freeSizes[index - 1] += bytes + freeSizes[index];
+	    removeFree(index);
+	} else if(mergePrevious) {
+	    freeSizes[index - 1] += bytes;
+	} else if(mergeNext) {
+	    freeOffsets[index] = offset;
+	    freeSizes[index] += bytes;
+	} else {
+	    insertFree(index, offset, bytes);
+	}
+    }
+    
+    /**
+     * Writes the specified data at the specified offset of the buffer
+     * @param offset
+     * @param data The data, ready for get() operations
+     */
+    public void upload(long offset, ByteBuffer data) {
+	GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, id);
+	GL15.glBufferSubData(GL31.GL_COPY_WRITE_BUFFER, offset, data);
+	GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+    }
+    
+    /**
+     * Writes the specified data at the specified offset of the buffer
+     * @param offset
+     * @param data The data, ready for get() operations
+     */
+    public void upload(long offset, ShortBuffer data) {
+	GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, id);
+	GL15.glBufferSubData(GL31.GL_COPY_WRITE_BUFFER, offset, data);
+	GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+    }
+    
+    /**
+     * Moves the contents to a larger buffer, keeping every range at its offset. This replaces the buffer object,
+     * so VAOs that use it must be pointed at getID() again
+     * @param newSize The new size in bytes, rounded up to the unit
+     */
+    public void grow(long newSize) {
+	newSize = roundUp(newSize);
+	if(newSize <= size) {
+	    return;
+	}
+	
+	final int buffer = GLResources.track(GLResources.Type.BUFFER, GL15.glGenBuffers(), newSize, "BufferArena");
+	GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, buffer);
+	GL15.glBufferData(GL31.GL_COPY_WRITE_BUFFER, newSize, GL15.GL_STATIC_DRAW);
+	GL15.glBindBuffer(GL31.GL_COPY_READ_BUFFER, id);
+	GL31.glCopyBufferSubData(GL31.GL_COPY_READ_BUFFER, GL31.GL_COPY_WRITE_BUFFER, 0, 0, size);
+	GL15.glBindBuffer(GL31.GL_COPY_READ_BUFFER, 0);
+	GL15.glBindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+	// Draws of this frame may still read the old buffer, so it is deleted at the end of the frame
+	GLResources.release(GLResources.Type.BUFFER, id);
+	id = buffer;
+	
+	// The new space continues the last free block if it reaches the old end
+	if(freeCount > 0 && freeOffsets[freeCount - 1] + freeSizes[freeCount - 1] == size) {
+	    freeSizes[freeCount - 1] += newSize - size;
+	} else {
+	    insertFree(freeCount, size, newSize - size);
+	}
+	size = newSize;
+    }
+    
+    /**
+     * Returns the id of the buffer object
+     * @return
+     */
+    public int getID() {
+	return id;
+    }
+    
+    /**
+     * Returns the size of the buffer in bytes
+     * @return
+     */
+    public long getSize() {
+	return size;
+    }
+    
+    /**
+     * Returns the granularity of the ranges in bytes
+     * @return
+     */
+    public int getUnit() {
+	return unit;
+    }
+    
+    /**
+     * Returns the number of bytes in allocated ranges
+     * @return
+     */
+    public long getUsedBytes() {
+	return usedBytes;
+    }
+    
+    /**
+     * Returns the number of bytes that are not allocated
+     * @return
+     */
+    public long getFreeBytes() {
+	return size - usedBytes;
+    }
+    
+    /**
+     * Returns the number of allocated ranges
+     * @return
+     */
+    public int getAllocationCount() {
+	return allocationCount;
+    }
+    
+    /**
+     * Returns the number of free blocks the free bytes are split into
+     * @return
+     */
+    public int getFreeBlockCount() {
+	return freeCount;
+    }
+    
+    /**
+     * Returns the size of the largest range that can currently be allocated
+     * @return
+     */
+    public long getLargestFreeBlock() {
+	long largest = 0;
+	for(int i = 0; i < freeCount; i++) {
+	    largest = Math.max(largest, freeSizes[i]);
+	}
+	
+	return largest;
+    }
+    
+    /**
+     * Returns how much of the free space is unusable for a range of all of it: 0 if the free bytes are one block,
+     * approaching 1 as they are split into many small blocks
+     * @return
+     */
+    public float getFragmentation() {
+	final long free = getFreeBytes();
+	
+	return free == 0 ? 0 : 1 - (float) getLargestFreeBlock() / free;
+    }
+    
+    /**
+     * Releases the buffer from VRAM at the end of the frame
+     */
+    public void dispose() {
+	GLResources.release(GLResources.Type.BUFFER, id);
+    }
+    
+    @Override
+    public String toString() {
+	return String.format("%d/%d KB used in %d ranges, %d free blocks, %.0f%% fragmented",
+		usedBytes / 1024, size / 1024, allocationCount, freeCount, getFragmentation() * 100);
+    }
+    
+    /**
+     * Returns the index of the first free block that starts after the specified offset
+     * @param offset
+     * @return
+     */
+    private int findFree(long offset) {
+	int low = 0;
+	int high = freeCount;
+	while(low < high) {
+	    final int middle = (low + high) >>> 1;
+	    if(freeOffsets[middle] <= offset) {
+		low = middle + 1;
+	    } else {
+		high = middle;
+	    }
+	}
+	
+	return low;
+    }
+    
+    /**
+     * Inserts a free block at the specified index of the list
+     * @param index
+     * @param offset
+     * @param bytes
+     */
+    private void insertFree(int index, long offset, long bytes) {
+	if(freeCount == freeOffsets.length) {
+	    freeOffsets = Arrays.copyOf(freeOffsets, freeCount * 2);
+	    freeSizes = Arrays.copyOf(freeSizes, freeCount * 2);
+	}
+	
+	System.arraycopy(freeOffsets, index, freeOffsets, index + 1, freeCount - index);
+	System.arraycopy(freeSizes, index, freeSizes, index + 1, freeCount - index);
+	freeOffsets[index] = offset;
+	freeSizes[index] = bytes;
+	freeCount++;
+    }
+    
+    /**
+     * Removes the free block at the specified index of the list
+     * @param index
+     */
+    private void removeFree(int index) {
+	System.arraycopy(freeOffsets, index + 1, freeOffsets, index, freeCount - index - 1);
+	System.arraycopy(freeSizes, index + 1, freeSizes, index, freeCount - index - 1);
+	freeCount--;
+    }
+    
+    /**
+     * Rounds the specified number of bytes up to a multiple of the unit
+     * @param bytes
+     * @return
+     */
+    private long roundUp(long bytes) {
+	return (bytes + unit - 1) / unit * unit;
+    }
+    
+}
@@ -265,6 +265,21 @@ public class Camera {
 	rotateX(-pitch * 2);
     }
     
+    /**
+     * Copies the state of the specified camera into this one without allocating, e.g. to snapshot it for another thread
+     * @param other
+     */
+    public void set(final Camera other) {
+	projection.load(other.projection);
+	view.load(other.view);
+	position.set(other.position);
+	orientation.set(other.orientation.x, other.orientation.y, other.orientation.z, other.orientation.w);
+	up.set(other.up);
+	forward.set(other.forward);
+	right.set(other.right);
+	pitch = other.pitch;
+    }
+    
     /**
      * Creates a copy of this camera object
      * @return
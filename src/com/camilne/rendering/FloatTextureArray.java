@@ -0,0 +1,96 @@
+package com.camilne.rendering;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * An array of single channel float textures of the same size, e.g. heightmaps that are read with texelFetch.
+ * Not filtered, so every texel is read exactly as it was written.
+ */
+public class FloatTextureArray {
+    
+    private int id;
+    private int width;
+    private int height;
+    private int layers;
+    
+    /**
+     * Creates an array of the specified size. The texels are undefined until they are updated
+     * @param width
+     * @param height
+     * @param layers
+     */
+    public FloatTextureArray(int width, int height, int layers) {
+	this.width = width;
+	this.height = height;
+	this.layers = layers;
+	
+	id = GLResources.track(GLResources.Type.TEXTURE, GL11.glGenTextures(), (long) width * height * layers * 4, "FloatTextureArray");
+	bind(GL13.GL_TEXTURE0);
+	
+	GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+	GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+	GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_WRAP_S, GL11.GL_REPEAT);
+	GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_WRAP_T, GL11.GL_REPEAT);
+	
+	// Allocate the storage of every layer
+	GL12.glTexImage3D(GL30.GL_TEXTURE_2D_ARRAY, 0, GL30.GL_R32F, width, height, layers, 0, GL11.GL_RED, GL11.GL_FLOAT, (FloatBuffer) null);
+    }
+    
+    /**
+     * Replaces a rectangle of texels of one layer. Must be bound to the active texture unit
+     * @param x The first column
+     * @param y The first row
+     * @param layer
+     * @param width The number of columns
+     * @param height The number of rows
+     * @param data The texels row by row, ready for get() operations
+     */
+    public void update(int x, int y, int layer, int width, int height, FloatBuffer data) {
+	GL12.glTexSubImage3D(GL30.GL_TEXTURE_2D_ARRAY, 0, x, y, layer, width, height, 1, GL11.GL_RED, GL11.GL_FLOAT, data);
+    }
+    
+    /**
+     * Binds this texture array to the specified active texture
+     * @param activeTexture The active texture to bind to
+     */
+    public void bind(int activeTexture) {
+	GLState.bindTexture(GL30.GL_TEXTURE_2D_ARRAY, activeTexture - GL13.GL_TEXTURE0, id);
+    }
+    
+    /**
+     * Returns the number of columns of every layer
+     * @return
+     */
+    public int getWidth() {
+	return width;
+    }
+    
+    /**
+     * Returns the number of rows of every layer
+     * @return
+     */
+    public int getHeight() {
+	return height;
+    }
+    
+    /**
+     * Returns the number of layers
+     * @return
+     */
+    public int getLayers() {
+	return layers;
+    }
+    
+    /**
+     * Releases this texture array from VRAM
+     */
+    public void dispose() {
+	GLResources.release(GLResources.Type.TEXTURE, id);
+    }
+    
+}
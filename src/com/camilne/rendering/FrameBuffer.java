@@ -6,7 +6,6 @@ import java.util.ArrayList;
 
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL13;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
 
@@ -25,18 +24,18 @@ public class FrameBuffer {
 	
 	textureids = new ArrayList<Integer>();
 	
-	id = GL30.glGenFramebuffers();
+	id = GLResources.track(GLResources.Type.FRAMEBUFFER, GL30.glGenFramebuffers(), 0, "FrameBuffer");
 	bind();
     }
     
     public void bind() {
-	GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, id);
-	GL11.glViewport(0, 0, width, height);
+	GLState.bindFramebuffer(id);
+	GLState.viewport(0, 0, width, height);
     }
     
     public static void unbind() {
-	GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
-	GL11.glViewport(0, 0, Application.WINDOW.getWidth(), Application.WINDOW.getHeight());
+	GLState.bindFramebuffer(0);
+	GLState.viewport(0, 0, Application.WINDOW.getWidth(), Application.WINDOW.getHeight());
     }
     
     public void attachTexture() {
@@ -54,12 +53,13 @@ public class FrameBuffer {
     public void attachTexture(int internalFormat, int format, int type, int filtering, int attachment, int width, int height) {
 	bind();
 	
-	int tid = GL11.glGenTextures();
-	GL11.glBindTexture(GL11.GL_TEXTURE_2D, tid);
+	// Drivers usually pad the texels to four bytes
+	int tid = GLResources.track(GLResources.Type.TEXTURE, GL11.glGenTextures(), (long) width * height * 4, "FrameBuffer texture");
+	GLState.bindTexture(GL11.GL_TEXTURE_2D, 0, tid);
 	GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, internalFormat, width, height, 0, format, type, (ByteBuffer) null);
 	GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, filtering);
 	GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, filtering);
-	GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+	GLState.bindTexture(GL11.GL_TEXTURE_2D, 0, 0);
 	
 	GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, attachment, GL11.GL_TEXTURE_2D, tid, 0);
 	textureids.add(tid);
@@ -82,7 +82,7 @@ public class FrameBuffer {
     public void attachDepthBuffer() {
 	bind();
 	
-	dboid = GL30.glGenRenderbuffers();
+	dboid = GLResources.track(GLResources.Type.RENDERBUFFER, GL30.glGenRenderbuffers(), (long) width * height * 4, "FrameBuffer depth");
 	GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, dboid);
 	GL30.glRenderbufferStorage(GL30.GL_RENDERBUFFER, GL11.GL_DEPTH_COMPONENT, width, height);
 	
@@ -93,7 +93,7 @@ public class FrameBuffer {
     public void attachDepthStencilBuffer() {
 	bind();
 	
-	dboid = GL30.glGenRenderbuffers();
+	dboid = GLResources.track(GLResources.Type.RENDERBUFFER, GL30.glGenRenderbuffers(), (long) width * height * 4, "FrameBuffer depth stencil");
 	GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, dboid);
 	GL30.glRenderbufferStorage(GL30.GL_RENDERBUFFER, GL30.GL_DEPTH24_STENCIL8, width, height);
 	GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, 0);
@@ -113,20 +113,24 @@ public class FrameBuffer {
     
     public void bindTexture() {
 	for(int i = 0; i < textureids.size(); i++) {
-	    GL13.glActiveTexture(GL13.GL_TEXTURE0 + i);
-	    GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureids.get(i));
+	    GLState.bindTexture(GL11.GL_TEXTURE_2D, i, textureids.get(i));
 	}
     }
     
+    /**
+     * Releases the framebuffer and its attachments from VRAM at the end of the frame
+     */
     public void dispose() {
-	GL30.glDeleteFramebuffers(id);
+	GLResources.release(GLResources.Type.FRAMEBUFFER, id);
 	
 	for(int i : textureids) {
-	    GL11.glDeleteTextures(i);
+	    GLResources.release(GLResources.Type.TEXTURE, i);
 	}
+	textureids.clear();
 	    
 	if(dboid != 0)
-	    GL30.glDeleteRenderbuffers(dboid);
+	    GLResources.release(GLResources.Type.RENDERBUFFER, dboid);
+	dboid = 0;
     }
 
 }
@@ -0,0 +1,133 @@
+package com.camilne.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.util.vector.Vector3f;
+
+/**
+ * The uniform block that every shader shares for the data of one view: the camera, the sun and the clip plane.
+ * It is written once per view into the next slot of a ring of uniform buffer ranges, so a view never overwrites
+ * a range that the draws of a previous view may still read. Shaders declare the block with the std140 layout:
+ * <pre>
+ * layout(std140) uniform Frame {
+ *     mat4 m_proj;
+ *     mat4 m_view;
+ *     vec3 camera_pos;
+ *     vec4 clip_plane;
+ *     vec3 sun_direction;
+ *     vec3 sun_ambient;
+ *     vec3 sun_diffuse;
+ * };
+ * </pre>
+ */
+public class FrameUniforms {
+    
+    // The name of the block in the shaders and the binding point it is read from.
+    public static final String BLOCK_NAME = "Frame";
+    public static final int BINDING = 0;
+    
+    // The std140 offsets of the members in floats, vec3s being aligned as vec4s.
+    private static final int PROJECTION = 0;
+    private static final int VIEW = 16;
+    private static final int CAMERA_POSITION = 32;
+    private static final int CLIP_PLANE = 36;
+    private static final int SUN_DIRECTION = 40;
+    private static final int SUN_AMBIENT = 44;
+    private static final int SUN_DIFFUSE = 48;
+    // The size of the block in bytes.
+    private static final int SIZE = 52 * 4;
+    
+    // The number of views that can be written before a range is reused: a reflection and the main view
+    // for each of the frames that the driver may queue.
+    private static final int SLOTS = 8;
+    
+    private int id;
+    // The distance between two slots, the size rounded up to the offset alignment of the implementation.
+    private int stride;
+    private int slot;
+    
+    private ByteBuffer data;
+    private FloatBuffer floats;
+    
+    /**
+     * Creates the ring of uniform buffer ranges. Must be called on the OpenGL thread
+     */
+    public FrameUniforms() {
+	final int alignment = Math.max(GL11.glGetInteger(GL31.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT), 1);
+	stride = (SIZE + alignment - 1) / alignment * alignment;
+	
+	data = BufferUtils.createByteBuffer(SIZE);
+	floats = data.asFloatBuffer();
+	
+	id = GLResources.track(GLResources.Type.BUFFER, GL15.glGenBuffers(), (long) stride * SLOTS, "FrameUniforms");
+	GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, id);
+	GL15.glBufferData(GL31.GL_UNIFORM_BUFFER, (long) stride * SLOTS, GL15.GL_STREAM_DRAW);
+	GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, 0);
+    }
+    
+    /**
+     * Writes the data of a view into the next slot and binds it to the binding point of the block
+     * @param camera The camera of the view
+     * @param sun The sun, or null to keep it dark
+     * @param clipA The clip plane, all zero to clip nothing
+     * @param clipB
+     * @param clipC
+     * @param clipD
+     */
+    public void update(Camera camera, DirectionalLight sun, float clipA, float clipB, float clipC, float clipD) {
+	floats.position(PROJECTION);
+	camera.getProjection().store(floats);
+	floats.position(VIEW);
+	camera.getView().store(floats);
+	floats.position(0);
+	
+	putVector(CAMERA_POSITION, camera.getPosition());
+	floats.put(CLIP_PLANE, clipA);
+	floats.put(CLIP_PLANE + 1, clipB);
+	floats.put(CLIP_PLANE + 2, clipC);
+	floats.put(CLIP_PLANE + 3, clipD);
+	
+	if(sun != null) {
+	    putVector(SUN_DIRECTION, sun.getDirection());
+	    putVector(SUN_AMBIENT, sun.getAmbient());
+	    putVector(SUN_DIFFUSE, sun.getDiffuse());
+	} else {
+	    for(int i = SUN_DIRECTION; i < SUN_DIFFUSE + 4; i++) {
+		floats.put(i, 0);
+	    }
+	}
+	
+	final long offset = (long) slot * stride;
+	GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, id);
+	GL15.glBufferSubData(GL31.GL_UNIFORM_BUFFER, offset, data);
+	GL15.glBindBuffer(GL31.GL_UNIFORM_BUFFER, 0);
+	GL30.glBindBufferRange(GL31.GL_UNIFORM_BUFFER, BINDING, id, offset, SIZE);
+	
+	slot = (slot + 1) % SLOTS;
+    }
+    
+    /**
+     * Releases the buffer from VRAM at the end of the frame
+     */
+    public void dispose() {
+	GLResources.release(GLResources.Type.BUFFER, id);
+    }
+    
+    /**
+     * Writes a vec3 at the specified offset in floats
+     * @param offset
+     * @param vector
+     */
+    private void putVector(int offset, Vector3f vector) {
+	floats.put(offset, vector.x);
+	floats.put(offset + 1, vector.y);
+	floats.put(offset + 2, vector.z);
+    }
+    
+}
@@ -0,0 +1,120 @@
+package com.camilne.rendering;
+
+import org.lwjgl.util.vector.Matrix4f;
+
+/**
+ * The six planes that bound the volume seen by a camera, in world space.
+ * Each plane is stored as (a, b, c, d) with the normal pointing into the frustum, so a point is inside when ax + by + cz + d >= 0.
+ */
+public class Frustum {
+    
+    // The order of the planes in the array.
+    public static final int LEFT = 0;
+    public static final int RIGHT = 1;
+    public static final int BOTTOM = 2;
+    public static final int TOP = 3;
+    public static final int NEAR = 4;
+    public static final int FAR = 5;
+    
+    // The planes packed as a, b, c, d.
+    private float[] planes;
+    
+    // Reused to combine the projection and view matrices.
+    private Matrix4f combined;
+    
+    /**
+     * Creates a frustum that contains everything until it is updated
+     */
+    public Frustum() {
+	planes = new float[6 * 4];
+	combined = new Matrix4f();
+	for(int i = 0; i < 6; i++) {
+	    planes[i * 4 + 3] = Float.POSITIVE_INFINITY;
+	}
+    }
+    
+    /**
+     * Creates a copy of the specified frustum
+     * @param other
+     */
+    public Frustum(Frustum other) {
+	planes = other.planes.clone();
+	combined = new Matrix4f();
+    }
+    
+    /**
+     * Extracts the planes from the specified camera matrices
+     * @param projection
+     * @param view
+     */
+    public void update(Matrix4f projection, Matrix4f view) {
+	final Matrix4f m = Matrix4f.mul(projection, view, combined);
+	
+	// Every plane is the sum or difference of the last row of the clip matrix and one of the other rows.
+	// The fields are named m<column><row>.
+	setPlane(LEFT,   m.m03 + m.m00, m.m13 + m.m10, m.m23 + m.m20, m.m33 + m.m30);
+	setPlane(RIGHT,  m.m03 - m.m00, m.m13 - m.m10, m.m23 - m.m20, m.m33 - m.m30);
+	setPlane(BOTTOM, m.m03 + m.m01, m.m13 + m.m11, m.m23 + m.m21, m.m33 + m.m31);
+	setPlane(TOP,    m.m03 - m.m01, m.m13 - m.m11, m.m23 - m.m21, m.m33 - m.m31);
+	setPlane(NEAR,   m.m03 + m.m02, m.m13 + m.m12, m.m23 + m.m22, m.m33 + m.m32);
+	setPlane(FAR,    m.m03 - m.m02, m.m13 - m.m12, m.m23 - m.m22, m.m33 - m.m32);
+    }
+    
+    /**
+     * Stores the specified plane normalised, so that its distance function is in world units
+     * @param plane
+     * @param a
+     * @param b
+     * @param c
+     * @param d
+     */
+    private void setPlane(int plane, float a, float b, float c, float d) {
+	final float length = (float) Math.sqrt(a * a + b * b + c * c);
+	planes[plane * 4    ] = a / length;
+	planes[plane * 4 + 1] = b / length;
+	planes[plane * 4 + 2] = c / length;
+	planes[plane * 4 + 3] = d / length;
+    }
+    
+    /**
+     * Returns whether any part of the specified axis-aligned box may be inside the frustum.
+     * Boxes near the corners of the frustum may be reported as visible when they are not.
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     * @return
+     */
+    public boolean intersectsBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+	for(int i = 0; i < planes.length; i += 4) {
+	    final float a = planes[i];
+	    final float b = planes[i + 1];
+	    final float c = planes[i + 2];
+	    
+	    // Test the corner of the box that is furthest along the plane normal
+	    final float x = a >= 0 ? maxX : minX;
+	    final float y = b >= 0 ? maxY : minY;
+	    final float z = c >= 0 ? maxZ : minZ;
+	    if(a * x + b * y + c * z + planes[i + 3] < 0) {
+		return false;
+	    }
+	}
+	
+	return true;
+    }
+    
+    /**
+     * Returns the signed distance from the specified plane to the specified point
+     * @param plane One of LEFT, RIGHT, BOTTOM, TOP, NEAR or FAR
+     * @param x
+     * @param y
+     * @param z
+     * @return The distance, positive on the inside of the plane
+     */
+    public float distance(int plane, float x, float y, float z) {
+	return planes[plane * 4] * x + planes[plane * 4 + 1] * y + planes[plane * 4 + 2] * z + planes[plane * 4 + 3];
+    }
+    
+}
@@ -0,0 +1,211 @@
+package com.camilne.rendering;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * Keeps a record of every OpenGL object that the rendering classes create, with its size in bytes and its owner.
+ * Objects are released by queueing them here, and are deleted by processDeletions() on the OpenGL thread at a point
+ * of the frame where nothing uses them anymore, instead of whenever the garbage collector gets to a finalizer.
+ * Whatever is still recorded at shutdown is reported as a leak.
+ */
+public class GLResources {
+    
+    /**
+     * The kinds of OpenGL objects
+     */
+    public enum Type {
+	BUFFER, VERTEX_ARRAY, TEXTURE, FRAMEBUFFER, RENDERBUFFER, PROGRAM, SHADER, QUERY
+    }
+    
+    // The live objects by type and id, see key().
+    private static final HashMap<Long, Record> records = new HashMap<Long, Record>();
+    // The objects released since the last processDeletions().
+    private static final ArrayList<Record> deletions = new ArrayList<Record>();
+    
+    // The bytes and number of the live objects of each type.
+    private static final long[] bytes = new long[Type.values().length];
+    private static final int[] counts = new int[Type.values().length];
+    
+    /**
+     * Records a new object. Must be called on the OpenGL thread
+     * @param type
+     * @param id The name that OpenGL generated
+     * @param byteSize The size of its storage, or 0 if it has none yet
+     * @param owner A description of what the object is for, shown in the leak report
+     * @return id
+     */
+    public static synchronized int track(Type type, int id, long byteSize, String owner) {
+	final Record record = new Record(type, id, byteSize, owner);
+	if(records.put(key(type, id), record) != null) {
+	    System.err.println("GL " + type + " " + id + " was tracked twice, by " + owner);
+	}
+	bytes[type.ordinal()] += byteSize;
+	counts[type.ordinal()]++;
+	
+	return id;
+    }
+    
+    /**
+     * Updates the size of the storage of an object, e.g. after glBufferData
+     * @param type
+     * @param id
+     * @param byteSize
+     */
+    public static synchronized void setByteSize(Type type, int id, long byteSize) {
+	final Record record = records.get(key(type, id));
+	if(record == null) {
+	    System.err.println("GL " + type + " " + id + " is not tracked");
+	    return;
+	}
+	
+	bytes[type.ordinal()] += byteSize - record.byteSize;
+	record.byteSize = byteSize;
+    }
+    
+    /**
+     * Queues an object to be deleted by the next processDeletions(). May be called from any thread.
+     * The object must not be used anymore
+     * @param type
+     * @param id
+     */
+    public static synchronized void release(Type type, int id) {
+	final Record record = records.remove(key(type, id));
+	if(record == null) {
+	    System.err.println("GL " + type + " " + id + " is not tracked or was released twice");
+	    new Exception().printStackTrace();
+	    return;
+	}
+	
+	bytes[type.ordinal()] -= record.byteSize;
+	counts[type.ordinal()]--;
+	deletions.add(record);
+    }
+    
+    /**
+     * Deletes the objects that were released since the last call. Must be called on the OpenGL thread,
+     * once the frame that last used them has been submitted
+     */
+    public static void processDeletions() {
+	final Record[] released;
+	synchronized(GLResources.class) {
+	    if(deletions.isEmpty()) {
+		return;
+	    }
+	    
+	    released = deletions.toArray(new Record[deletions.size()]);
+	    deletions.clear();
+	}
+	
+	for(Record record : released) {
+	    GLState.forget(record.type, record.id);
+	    switch(record.type) {
+	    case BUFFER:
+		GL15.glDeleteBuffers(record.id);
+		break;
+	    case VERTEX_ARRAY:
+		GL30.glDeleteVertexArrays(record.id);
+		break;
+	    case TEXTURE:
+		GL11.glDeleteTextures(record.id);
+		break;
+	    case FRAMEBUFFER:
+		GL30.glDeleteFramebuffers(record.id);
+		break;
+	    case RENDERBUFFER:
+		GL30.glDeleteRenderbuffers(record.id);
+		break;
+	    case PROGRAM:
+		GL20.glDeleteProgram(record.id);
+		break;
+	    case SHADER:
+		GL20.glDeleteShader(record.id);
+		break;
+	    case QUERY:
+		GL15.glDeleteQueries(record.id);
+		break;
+	    }
+	}
+    }
+    
+    /**
+     * Returns the bytes of storage of all live objects, an estimate of the VRAM in use
+     * @return
+     */
+    public static synchronized long getByteSize() {
+	long total = 0;
+	for(long typeBytes : bytes) {
+	    total += typeBytes;
+	}
+	
+	return total;
+    }
+    
+    /**
+     * Returns the bytes of storage of the live objects of the specified type
+     * @param type
+     * @return
+     */
+    public static synchronized long getByteSize(Type type) {
+	return bytes[type.ordinal()];
+    }
+    
+    /**
+     * Returns the number of live objects of the specified type
+     * @param type
+     * @return
+     */
+    public static synchronized int getCount(Type type) {
+	return counts[type.ordinal()];
+    }
+    
+    /**
+     * Prints every object that is still live, e.g. after the application disposed everything at shutdown
+     * @return The number of live objects
+     */
+    public static synchronized int reportLeaks() {
+	if(!records.isEmpty()) {
+	    System.err.println(records.size() + " GL objects (" + getByteSize() / 1024 + " KB) were not released:");
+	    for(Record record : records.values()) {
+		System.err.println("    " + record.type + " " + record.id + " of " + record.byteSize + " bytes, owned by " + record.owner);
+	    }
+	}
+	
+	return records.size();
+    }
+    
+    /**
+     * Returns the key of an object in the records. Ids are only unique per type
+     * @param type
+     * @param id
+     * @return
+     */
+    private static long key(Type type, int id) {
+	return ((long) type.ordinal() << 32) | (id & 0xFFFFFFFFL);
+    }
+    
+    /**
+     * A live or released object
+     */
+    private static class Record {
+	
+	private Type type;
+	private int id;
+	private long byteSize;
+	private String owner;
+	
+	private Record(Type type, int id, long byteSize, String owner) {
+	    this.type = type;
+	    this.id = id;
+	    this.byteSize = byteSize;
+	    this.owner = owner;
+	}
+    
+    }
+    
+}
@@ -0,0 +1,280 @@
+package com.camilne.rendering;
+
+import java.util.Arrays;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * Remembers the OpenGL state that the rendering classes change most often and skips the calls that would set it
+ * to what it already is: the program, the VAO, the textures of every unit, the framebuffer and viewport, the
+ * capabilities such as blending and clip distances, and the blend function. State that is unknown, e.g. after
+ * invalidate(), is always set. Every change must go through this class, and only on the OpenGL thread.
+ * The issued and avoided calls are counted to measure the savings.
+ */
+public class GLState {
+    
+    // The cached value of state that has not been set through this class.
+    private static final int UNKNOWN = -1;
+    // The number of texture units whose bindings are cached. Others are always bound.
+    private static final int TEXTURE_UNITS = 16;
+    // The capabilities whose state is cached.
+    private static final int[] CAPABILITIES = new int[] {
+	GL11.GL_DEPTH_TEST, GL11.GL_CULL_FACE, GL11.GL_BLEND, GL13.GL_MULTISAMPLE, GL30.GL_CLIP_DISTANCE0
+    };
+    
+    private static int program = UNKNOWN;
+    private static int vertexArray = UNKNOWN;
+    private static int framebuffer = UNKNOWN;
+    private static int activeTexture = UNKNOWN;
+    // The bound textures of every unit, per target.
+    private static final int[] textures2D = new int[TEXTURE_UNITS];
+    private static final int[] textureArrays = new int[TEXTURE_UNITS];
+    private static final int[] viewport = new int[4];
+    // The state of every capability: UNKNOWN, 0 or 1.
+    private static final int[] capabilities = new int[CAPABILITIES.length];
+    private static int blendSource = UNKNOWN;
+    private static int blendDestination = UNKNOWN;
+    
+    private static long issuedCalls;
+    private static long avoidedCalls;
+    
+    static {
+	invalidate();
+    }
+    
+    /**
+     * Uses the specified program, see glUseProgram
+     * @param id
+     */
+    public static void useProgram(int id) {
+	if(program == id) {
+	    avoidedCalls++;
+	    return;
+	}
+	
+	program = id;
+	issuedCalls++;
+	GL20.glUseProgram(id);
+    }
+    
+    /**
+     * Binds the specified VAO, see glBindVertexArray
+     * @param id
+     */
+    public static void bindVertexArray(int id) {
+	if(vertexArray == id) {
+	    avoidedCalls++;
+	    return;
+	}
+	
+	vertexArray = id;
+	issuedCalls++;
+	GL30.glBindVertexArray(id);
+    }
+    
+    /**
+     * Binds the specified framebuffer for drawing and reading, see glBindFramebuffer
+     * @param id
+     */
+    public static void bindFramebuffer(int id) {
+	if(framebuffer == id) {
+	    avoidedCalls++;
+	    return;
+	}
+	
+	framebuffer = id;
+	issuedCalls++;
+	GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, id);
+    }
+    
+    /**
+     * Sets the viewport, see glViewport
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     */
+    public static void viewport(int x, int y, int width, int height) {
+	if(viewport[0] == x && viewport[1] == y && viewport[2] == width && viewport[3] == height) {
+	    avoidedCalls++;
+	    return;
+	}
+	
+	viewport[0] = x;
+	viewport[1] = y;
+	viewport[2] = width;
+	viewport[3] = height;
+	issuedCalls++;
+	GL11.glViewport(x, y, width, height);
+    }
+    
+    /**
+     * Selects the texture unit that textures are bound to, see glActiveTexture
+     * @param unit The index of the unit, starting at 0 for GL_TEXTURE0
+     */
+    public static void activeTexture(int unit) {
+	if(activeTexture == unit) {
+	    avoidedCalls++;
+	    return;
+	}
+	
+	activeTexture = unit;
+	issuedCalls++;
+	GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+    }
+    
+    /**
+     * Binds the specified texture to a unit, which becomes the active texture unit if it is bound
+     * @param target GL_TEXTURE_2D or GL_TEXTURE_2D_ARRAY. Other targets are always bound
+     * @param unit The index of the unit, starting at 0 for GL_TEXTURE0
+     * @param id
+     */
+    public static void bindTexture(int target, int unit, int id) {
+	final int[] bound = target == GL11.GL_TEXTURE_2D ? textures2D : target == GL30.GL_TEXTURE_2D_ARRAY ? textureArrays : null;
+	if(bound != null && unit < TEXTURE_UNITS && bound[unit] == id) {
+	    avoidedCalls++;
+	    return;
+	}
+	
+	activeTexture(unit);
+	if(bound != null && unit < TEXTURE_UNITS) {
+	    bound[unit] = id;
+	}
+	issuedCalls++;
+	GL11.glBindTexture(target, id);
+    }
+    
+    /**
+     * Enables or disables a capability, see glEnable
+     * @param capability
+     * @param enabled
+     */
+    public static void setEnabled(int capability, boolean enabled) {
+	final int index = indexOf(capability);
+	final int state = enabled ? 1 : 0;
+	if(index != -1 && capabilities[index] == state) {
+	    avoidedCalls++;
+	    return;
+	}
+	
+	if(index != -1) {
+	    capabilities[index] = state;
+	}
+	issuedCalls++;
+	if(enabled) {
+	    GL11.glEnable(capability);
+	} else {
+	    GL11.glDisable(capability);
+	}
+    }
+    
+    /**
+     * Sets the blend function, see glBlendFunc
+     * @param source
+     * @param destination
+     */
+    public static void blendFunc(int source, int destination) {
+	if(blendSource == source && blendDestination == destination) {
+	    avoidedCalls++;
+	    return;
+	}
+	
+	blendSource = source;
+	blendDestination = destination;
+	issuedCalls++;
+	GL11.glBlendFunc(source, destination);
+    }
+    
+    /**
+     * Forgets all of the cached state, e.g. after something changed it without this class.
+     * Every following call is issued once
+     */
+    public static void invalidate() {
+	program = UNKNOWN;
+	vertexArray = UNKNOWN;
+	framebuffer = UNKNOWN;
+	activeTexture = UNKNOWN;
+	Arrays.fill(textures2D, UNKNOWN);
+	Arrays.fill(textureArrays, UNKNOWN);
+	Arrays.fill(viewport, UNKNOWN);
+	Arrays.fill(capabilities, UNKNOWN);
+	blendSource = UNKNOWN;
+	blendDestination = UNKNOWN;
+    }
+    
+    /**
+     * Forgets the bindings of an object that is being deleted. Its name may be generated again for a new object,
+     * which must not be mistaken for being bound
+     * @param type
+     * @param id
+     */
+    static void forget(GLResources.Type type, int id) {
+	switch(type) {
+	case PROGRAM:
+	    if(program == id)
+		program = UNKNOWN;
+	    break;
+	case VERTEX_ARRAY:
+	    if(vertexArray == id)
+		vertexArray = UNKNOWN;
+	    break;
+	case FRAMEBUFFER:
+	    if(framebuffer == id)
+		framebuffer = UNKNOWN;
+	    break;
+	case TEXTURE:
+	    for(int i = 0; i < TEXTURE_UNITS; i++) {
+		if(textures2D[i] == id)
+		    textures2D[i] = UNKNOWN;
+		if(textureArrays[i] == id)
+		    textureArrays[i] = UNKNOWN;
+	    }
+	    break;
+	default:
+	    break;
+	}
+    }
+    
+    /**
+     * Returns the number of calls that reached the driver since the counters were reset
+     * @return
+     */
+    public static long getIssuedCalls() {
+	return issuedCalls;
+    }
+    
+    /**
+     * Returns the number of calls that were skipped because the state was already set, since the counters were reset
+     * @return
+     */
+    public static long getAvoidedCalls() {
+	return avoidedCalls;
+    }
+    
+    /**
+     * Sets the issued and avoided calls back to 0, e.g. once per second
+     */
+    public static void resetCounters() {
+	issuedCalls = 0;
+	avoidedCalls = 0;
+    }
+    
+    /**
+     * Returns the index of the specified capability in CAPABILITIES, or -1 if it is not cached
+     * @param capability
+     * @return
+     */
+    private static int indexOf(int capability) {
+	for(int i = 0; i < CAPABILITIES.length; i++) {
+	    if(CAPABILITIES[i] == capability) {
+		return i;
+	    }
+	}
+	
+	return -1;
+    }
+    
+}
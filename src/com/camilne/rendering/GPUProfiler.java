@@ -0,0 +1,283 @@
+package com.camilne.rendering;
+
+import java.util.Arrays;
+
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL33;
+
+/**
+ * Measures how long the GPU spends in each registered pass of a frame with timestamp queries. Timestamps can be
+ * nested, so a pass may contain others, and a pass that runs several times in a frame adds up its times.
+ * The queries of a frame are only read FRAMES frames later, when the GPU has long finished them, so reading never
+ * waits for the GPU. Frames whose results are still not available are dropped instead.
+ * The times of the last HISTORY measured frames give the rolling average and percentiles of every pass.
+ * Must only be used on the OpenGL thread.
+ */
+public class GPUProfiler {
+    
+    // The number of frames that are measured before the queries of the first of them are read and reused.
+    private static final int FRAMES = 4;
+    // The number of measured frames that the statistics cover.
+    private static final int HISTORY = 128;
+    
+    private static boolean enabled;
+    // The number of frames between log lines, or 0 to not log.
+    private static int logInterval;
+    
+    private static String[] names = new String[0];
+    private static int passCount;
+    
+    // The timestamp queries of every frame in the ring, in the order they were issued, and what each marks:
+    // the pass shifted left by one, plus one for the end of the pass.
+    private static final int[][] queries = new int[FRAMES][0];
+    private static final int[][] marks = new int[FRAMES][0];
+    private static final int[] markCounts = new int[FRAMES];
+    private static int frame;
+    private static long frameCount;
+    private static long droppedFrames;
+    
+    // The time of every pass in milliseconds, for the last HISTORY measured frames.
+    private static float[][] history = new float[0][];
+    private static int historyIndex;
+    private static int historyCount;
+    
+    // Reused while the queries of a frame are read and while percentiles are computed.
+    private static long[] beginTimes = new long[0];
+    private static long[] totalTimes = new long[0];
+    private static final float[] sorted = new float[HISTORY];
+    
+    /**
+     * Registers a pass to measure. Registering a name again returns the same pass
+     * @param name The name of the pass in the statistics and the log
+     * @return The id of the pass, for begin() and end()
+     */
+    public static int register(String name) {
+	for(int i = 0; i < passCount; i++) {
+	    if(names[i].equals(name)) {
+		return i;
+	    }
+	}
+	
+	names = Arrays.copyOf(names, passCount + 1);
+	names[passCount] = name;
+	history = Arrays.copyOf(history, passCount + 1);
+	history[passCount] = new float[HISTORY];
+	beginTimes = new long[passCount + 1];
+	totalTimes = new long[passCount + 1];
+	
+	return passCount++;
+    }
+    
+    /**
+     * Marks the start of a pass in the command stream. Does nothing if the profiler is disabled
+     * @param pass
+     */
+    public static void begin(int pass) {
+	if(enabled) {
+	    mark(pass << 1);
+	}
+    }
+    
+    /**
+     * Marks the end of a pass in the command stream. Does nothing if the profiler is disabled
+     * @param pass
+     */
+    public static void end(int pass) {
+	if(enabled) {
+	    mark((pass << 1) | 1);
+	}
+    }
+    
+    /**
+     * Ends the frame and reads the queries of the oldest frame in the ring, which are reused by the next one.
+     * Call once per frame, after the buffers are swapped
+     */
+    public static void endFrame() {
+	frameCount++;
+	frame = (frame + 1) % FRAMES;
+	
+	if(markCounts[frame] > 0) {
+	    read(frame);
+	    markCounts[frame] = 0;
+	}
+	
+	if(enabled && logInterval > 0 && frameCount % logInterval == 0 && historyCount > 0) {
+	    System.out.println(getSummary());
+	}
+    }
+    
+    /**
+     * Issues a timestamp query for the specified mark, creating the query the first time the frame needs it
+     * @param mark
+     */
+    private static void mark(int mark) {
+	final int count = markCounts[frame];
+	if(count == queries[frame].length) {
+	    final int capacity = Math.max(count * 2, 16);
+	    queries[frame] = Arrays.copyOf(queries[frame], capacity);
+	    marks[frame] = Arrays.copyOf(marks[frame], capacity);
+	    for(int i = count; i < capacity; i++) {
+		queries[frame][i] = GLResources.track(GLResources.Type.QUERY, GL15.glGenQueries(), 0, "GPUProfiler");
+	    }
+	}
+	
+	GL33.glQueryCounter(queries[frame][count], GL33.GL_TIMESTAMP);
+	marks[frame][count] = mark;
+	markCounts[frame] = count + 1;
+    }
+    
+    /**
+     * Adds the times of the passes of a frame to the history, if the GPU has finished it
+     * @param slot The frame in the ring
+     */
+    private static void read(int slot) {
+	final int count = markCounts[slot];
+	// The queries finish in order, so the last one being available means that all of them are
+	if(GL15.glGetQueryObjecti(queries[slot][count - 1], GL15.GL_QUERY_RESULT_AVAILABLE) == 0) {
+	    droppedFrames++;
+	    return;
+	}
+	
+	Arrays.fill(totalTimes, 0);
+	for(int i = 0; i < count; i++) {
+	    final int pass = marks[slot][i] >> 1;
+	    final long time = GL33.glGetQueryObjecti64(queries[slot][i], GL15.GL_QUERY_RESULT);
+	    if((marks[slot][i] & 1) == 0) {
+		beginTimes[pass] = time;
+	    } else {
+		totalTimes[pass] += time - beginTimes[pass];
+	    }
+	}
+	
+	for(int pass = 0; pass < passCount; pass++) {
+	    history[pass][historyIndex] = totalTimes[pass] / 1000000f;
+	}
+	historyIndex = (historyIndex + 1) % HISTORY;
+	historyCount = Math.min(historyCount + 1, HISTORY);
+    }
+    
+    /**
+     * Returns the average time of a pass per frame over the recent frames, in milliseconds
+     * @param pass
+     * @return
+     */
+    public static float getAverage(int pass) {
+	if(historyCount == 0) {
+	    return 0;
+	}
+	
+	float sum = 0;
+	for(int i = 0; i < historyCount; i++) {
+	    sum += history[pass][i];
+	}
+	
+	return sum / historyCount;
+    }
+    
+    /**
+     * Returns the time of a pass that the specified percentage of the recent frames did not exceed, in milliseconds
+     * @param pass
+     * @param percentile From 0 to 100, e.g. 95
+     * @return
+     */
+    public static float getPercentile(int pass, float percentile) {
+	if(historyCount == 0) {
+	    return 0;
+	}
+	
+	System.arraycopy(history[pass], 0, sorted, 0, historyCount);
+	Arrays.sort(sorted, 0, historyCount);
+	
+	// The nearest rank
+	final int rank = (int) Math.ceil(percentile / 100 * historyCount) - 1;
+	
+	return sorted[Math.min(Math.max(rank, 0), historyCount - 1)];
+    }
+    
+    /**
+     * Returns one line with the average and 95th percentile of every pass
+     * @return
+     */
+    public static String getSummary() {
+	final StringBuilder builder = new StringBuilder("GPU ms (avg / p95 over " + historyCount + " frames):");
+	for(int pass = 0; pass < passCount; pass++) {
+	    builder.append(String.format(" --- %s %.2f / %.2f", names[pass], getAverage(pass), getPercentile(pass, 95)));
+	}
+	if(droppedFrames > 0) {
+	    builder.append(" --- ").append(droppedFrames).append(" frames dropped");
+	}
+	
+	return builder.toString();
+    }
+    
+    /**
+     * Returns the name of a pass
+     * @param pass
+     * @return
+     */
+    public static String getName(int pass) {
+	return names[pass];
+    }
+    
+    /**
+     * Returns the number of registered passes, whose ids go from 0 to this minus one
+     * @return
+     */
+    public static int getPassCount() {
+	return passCount;
+    }
+    
+    /**
+     * Returns the number of frames whose results were not available in time and were dropped
+     * @return
+     */
+    public static long getDroppedFrames() {
+	return droppedFrames;
+    }
+    
+    /**
+     * Returns whether passes are measured
+     * @return
+     */
+    public static boolean isEnabled() {
+	return enabled;
+    }
+    
+    /**
+     * Sets whether passes are measured. Must be called between frames, so that no pass is left open
+     * @param enabled
+     */
+    public static void setEnabled(boolean enabled) {
+	GPUProfiler.enabled = enabled;
+    }
+    
+    /**
+     * Sets how often the summary is printed while the profiler is enabled
+     * @param frames The number of frames between log lines, or 0 to not log
+     */
+    public static void setLogInterval(int frames) {
+	logInterval = Math.max(frames, 0);
+    }
+    
+    /**
+     * Releases the queries at the end of the frame and forgets the measurements. The passes stay registered
+     */
+    public static void dispose() {
+	for(int i = 0; i < FRAMES; i++) {
+	    for(int query : queries[i]) {
+		GLResources.release(GLResources.Type.QUERY, query);
+	    }
+	    queries[i] = new int[0];
+	    marks[i] = new int[0];
+	    markCounts[i] = 0;
+	}
+	
+	for(int pass = 0; pass < passCount; pass++) {
+	    Arrays.fill(history[pass], 0);
+	}
+	historyIndex = 0;
+	historyCount = 0;
+	droppedFrames = 0;
+    }
+    
+}
@@ -0,0 +1,134 @@
+package com.camilne.rendering;
+
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+
+import com.camilne.util.Util;
+
+public class IndexBuffer {
+    
+    // The id of the ElementBufferObject
+    private int id;
+    // The number of indices and their OpenGL type
+    private int count;
+    private int type;
+    
+    /**
+     * Creates an ElementBufferObject holding 32-bit indices
+     * @param indices
+     */
+    public IndexBuffer(int[] indices) {
+	this(GL11.GL_UNSIGNED_INT, indices.length);
+	
+	GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, Util.toBuffer(indices), GL15.GL_STATIC_DRAW);
+	unbind();
+    }
+    
+    /**
+     * Creates an ElementBufferObject holding 32-bit indices
+     * @param indices The index data, ready for get() operations
+     */
+    public IndexBuffer(IntBuffer indices) {
+	this(GL11.GL_UNSIGNED_INT, indices.remaining());
+	
+	GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indices, GL15.GL_STATIC_DRAW);
+	unbind();
+    }
+    
+    /**
+     * Creates an ElementBufferObject holding 16-bit indices. Indices are treated as unsigned
+     * @param indices The index data, ready for get() operations
+     */
+    public IndexBuffer(ShortBuffer indices) {
+	this(GL11.GL_UNSIGNED_SHORT, indices.remaining());
+	
+	GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indices, GL15.GL_STATIC_DRAW);
+	unbind();
+    }
+    
+    /**
+     * Creates and binds an empty ElementBufferObject
+     * @param type The OpenGL type of the indices
+     * @param count The number of indices
+     */
+    private IndexBuffer(int type, int count) {
+	this.type = type;
+	this.count = count;
+	
+	id = GLResources.track(GLResources.Type.BUFFER, GL15.glGenBuffers(), (long) count * (type == GL11.GL_UNSIGNED_SHORT ? 2 : 4), "IndexBuffer");
+	// VAOs stay bound after drawing, and a bound VAO would take these indices
+	GLState.bindVertexArray(0);
+	bind();
+    }
+    
+    /**
+     * Stores the specified indices into a ShortBuffer. Does not require an OpenGL context
+     * @param indices Indices that are less than 65536
+     * @return The generated ShortBuffer
+     */
+    public static ShortBuffer toShortBuffer(int[] indices) {
+	ShortBuffer buffer = BufferUtils.createShortBuffer(indices.length);
+	
+	for(int i = 0; i < indices.length; i++) {
+	    if(indices[i] > 0xFFFF) {
+		throw new IllegalArgumentException("Index " + indices[i] + " does not fit in 16 bits");
+	    }
+	    buffer.put((short) indices[i]);
+	}
+	
+	// Prepares the buffer for get() operations
+	buffer.flip();
+	
+	return buffer;
+    }
+    
+    /**
+     * Binds this index buffer. If a VAO is bound, the VAO will use these indices
+     */
+    public void bind() {
+	GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, id);
+    }
+    
+    /**
+     * Unbinds the current index buffer
+     */
+    public void unbind() {
+	GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+    
+    /**
+     * Returns the id of this ElementBufferObject
+     * @return
+     */
+    public int getID() {
+	return id;
+    }
+    
+    /**
+     * Returns the number of indices
+     * @return
+     */
+    public int getCount() {
+	return count;
+    }
+    
+    /**
+     * Returns the OpenGL type of the indices (GL_UNSIGNED_SHORT or GL_UNSIGNED_INT)
+     * @return
+     */
+    public int getType() {
+	return type;
+    }
+    
+    /**
+     * Releases this index buffer from VRAM at the end of the frame
+     */
+    public void dispose() {
+	GLResources.release(GLResources.Type.BUFFER, id);
+    }
+    
+}
@@ -1,14 +1,19 @@
 package com.camilne.rendering;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL31;
 
 import com.camilne.util.Util;
 
 public class IndexedVAO extends VAO{
     
+    // The indices used to render this VAO. May be shared with other VAOs.
+    private IndexBuffer indices;
+    
     /**
      * Creates an indexed VAO with the specified data, indices, and dimensions
      * @param data The vertex data in a float array
@@ -26,32 +31,62 @@ public class IndexedVAO extends VAO{
      * @param dimensions The number of dimensions of the vertex data
      */
     public IndexedVAO(FloatBuffer data, int[] indices, int... dimensions) {
-	super(data, dimensions);
+	this(data, new IndexBuffer(indices), dimensions);
 	
-	// Store the indices in an EBO
-	store(indices);
-		
-	vertexCount = indices.length;
+	// This VAO owns the indices, so add them to the buffer objects for memory management
+	addBufferObject(this.indices.getID());
     }
     
     /**
-     * Store the specified indices into an ElementBufferObject
-     * @param indices
+     * Creates an indexed VAO with the specified data and dimensions that renders with an existing index buffer.
+     * The index buffer is not released with this VAO, so it can be shared by many VAOs.
+     * @param data The vertex data in a float buffer
+     * @param indices The shared index buffer
+     * @param dimensions The number of dimensions of the vertex data
      */
-    private void store(int[] indices) {
-	bind();
+    public IndexedVAO(FloatBuffer data, IndexBuffer indices, int... dimensions) {
+	super(data, dimensions);
 	
-	// Create an id for the ElementBufferObject
-	int eboid = GL15.glGenBuffers();
-	// Bind the EBO
-	GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, eboid);
-	// Store the data in the EBO
-	GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, Util.toBuffer(indices), GL15.GL_STATIC_DRAW);
+	attachIndices(indices);
+    }
+    
+    /**
+     * Creates an indexed VAO with the specified packed data and indices
+     * @param data The vertex data in a byte buffer
+     * @param format The layout of the vertex data
+     * @param indices The index data, ready for get() operations
+     */
+    public IndexedVAO(ByteBuffer data, VertexFormat format, IntBuffer indices) {
+	this(data, format, new IndexBuffer(indices));
 	
-	// Add this to the buffer objects for memory management and rendering
-	addBufferObject(eboid);
+	// This VAO owns the indices, so add them to the buffer objects for memory management
+	addBufferObject(this.indices.getID());
+    }
+    
+    /**
+     * Creates an indexed VAO with the specified packed data that renders with an existing index buffer.
+     * The index buffer is not released with this VAO, so it can be shared by many VAOs.
+     * @param data The vertex data in a byte buffer
+     * @param format The layout of the vertex data
+     * @param indices The shared index buffer
+     */
+    public IndexedVAO(ByteBuffer data, VertexFormat format, IndexBuffer indices) {
+	super(data, format);
 	
+	attachIndices(indices);
+    }
+    
+    /**
+     * Attaches the specified indices to the VAO
+     * @param indices
+     */
+    private void attachIndices(IndexBuffer indices) {
+	this.indices = indices;
+	bind();
+	indices.bind();
 	unbind();
+		
+	vertexCount = indices.getCount();
     }
     
     /**
@@ -59,18 +94,31 @@ public class IndexedVAO extends VAO{
      */
     @Override
     public void render() {
+	render(indices);
+    }
+    
+    /**
+     * Renders the VAO as triangles with other indices into the same vertices, e.g. a coarser level of detail
+     * @param indices
+     */
+    public void render(IndexBuffer indices) {
 	bind();
 	
-	enableAttributes();
-	
 	// Bind the EBO
-	GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, getBufferObject(1));
+	indices.bind();
 	// Render all the indexed vertices as triangles
-	GL11.glDrawElements(GL11.GL_TRIANGLES, vertexCount, GL11.GL_UNSIGNED_INT, 0);
-	
-	disableAttributes();
+	GL11.glDrawElements(GL11.GL_TRIANGLES, indices.getCount(), indices.getType(), 0);
+    }
+    
+    /**
+     * Renders the specified number of instances of the VAO as triangles. See setInstanceFormat()
+     * @param instances
+     */
+    public void renderInstanced(int instances) {
+	bind();
 	
-	unbind();
+	indices.bind();
+	GL31.glDrawElementsInstanced(GL11.GL_TRIANGLES, indices.getCount(), indices.getType(), 0, instances);
     }
 
-}
+}
\ No newline at end of file
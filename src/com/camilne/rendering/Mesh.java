@@ -1,13 +1,20 @@
 package com.camilne.rendering;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 
 import org.lwjgl.BufferUtils;
 import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector3f;
 
+import com.camilne.util.CPUProfiler;
+
 public class Mesh {
     
+    // Times the upload of the vertices and indices of every mesh.
+    private static final int PROFILE_SCOPE = CPUProfiler.register("Mesh");
+    
     private Matrix4f modelMatrix;
     private IndexedVAO vao;
     
@@ -34,6 +41,76 @@ public class Mesh {
 	    calculateNormals(vertices, indices);
 	}
 	
+	// Create the VAO using the vertices and indices
+	CPUProfiler.begin(PROFILE_SCOPE);
+	vao = new IndexedVAO(toBuffer(vertices), indices, Vertex.DIMENSIONS);
+	CPUProfiler.end(PROFILE_SCOPE);
+    }
+    
+    /**
+     * Create a mesh with the specified packed vertex data and indices. The data must be laid out as Vertex.DIMENSIONS
+     * @param data
+     * @param indices
+     */
+    public Mesh(FloatBuffer data, int[] indices) {
+	modelMatrix = new Matrix4f();
+	
+	// Create the VAO using the vertices and indices
+	CPUProfiler.begin(PROFILE_SCOPE);
+	vao = new IndexedVAO(data, indices, Vertex.DIMENSIONS);
+	CPUProfiler.end(PROFILE_SCOPE);
+    }
+    
+    /**
+     * Create a mesh with the specified packed vertex data and a shared index buffer. The data must be laid out as Vertex.DIMENSIONS
+     * @param data
+     * @param indices The index buffer, which is not released with this mesh
+     */
+    public Mesh(FloatBuffer data, IndexBuffer indices) {
+	modelMatrix = new Matrix4f();
+	
+	// Create the VAO using the vertices and shared indices
+	CPUProfiler.begin(PROFILE_SCOPE);
+	vao = new IndexedVAO(data, indices, Vertex.DIMENSIONS);
+	CPUProfiler.end(PROFILE_SCOPE);
+    }
+    
+    /**
+     * Create a mesh with the specified packed vertex data and indices, e.g. from a MeshBuilder
+     * @param data
+     * @param format The layout of the data
+     * @param indices
+     */
+    public Mesh(ByteBuffer data, VertexFormat format, IntBuffer indices) {
+	modelMatrix = new Matrix4f();
+	
+	// Create the VAO using the vertices and indices
+	CPUProfiler.begin(PROFILE_SCOPE);
+	vao = new IndexedVAO(data, format, indices);
+	CPUProfiler.end(PROFILE_SCOPE);
+    }
+    
+    /**
+     * Create a mesh with the specified packed vertex data and a shared index buffer
+     * @param data
+     * @param format The layout of the data
+     * @param indices The index buffer, which is not released with this mesh
+     */
+    public Mesh(ByteBuffer data, VertexFormat format, IndexBuffer indices) {
+	modelMatrix = new Matrix4f();
+	
+	// Create the VAO using the vertices and shared indices
+	CPUProfiler.begin(PROFILE_SCOPE);
+	vao = new IndexedVAO(data, format, indices);
+	CPUProfiler.end(PROFILE_SCOPE);
+    }
+    
+    /**
+     * Packs the specified vertices into a FloatBuffer laid out as Vertex.DIMENSIONS. Does not require an OpenGL context
+     * @param vertices
+     * @return The packed vertex data
+     */
+    public static FloatBuffer toBuffer(Vertex[] vertices) {
 	// Create a FloatBuffer to hold Vertex data
 	FloatBuffer data = BufferUtils.createFloatBuffer(vertices.length * Vertex.SIZE);
 	
@@ -58,8 +135,7 @@ public class Mesh {
 	// Prepare the buffer for get() operations
 	data.flip();
 	
-	// Create the VAO using the vertices and indices
-	vao = new IndexedVAO(data, indices, Vertex.DIMENSIONS);
+	return data;
     }
     
     /**
@@ -97,6 +173,29 @@ public class Mesh {
 	vao.render();
     }
     
+    /**
+     * Renders the mesh with other indices into the same vertices
+     * @param indices
+     */
+    public void render(IndexBuffer indices) {
+	vao.render(indices);
+    }
+    
+    /**
+     * Releases the VAO of the mesh, including its indices unless they are shared
+     */
+    public void dispose() {
+	vao.dispose();
+    }
+    
+    /**
+     * Returns the VAO of the mesh, e.g. to add per instance attributes
+     * @return
+     */
+    public IndexedVAO getVAO() {
+	return vao;
+    }
+    
     /**
      * Translates the mesh by the specified position
      * @param position
@@ -0,0 +1,355 @@
+package com.camilne.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+
+import org.lwjgl.BufferUtils;
+
+/**
+ * Writes vertices and indices straight into reusable direct buffers, so that building a mesh does not allocate
+ * any objects per vertex. Does not require an OpenGL context until build() is called, so it can be filled on any thread.
+ * <pre>
+ * MeshBuilder builder = new MeshBuilder(VertexFormat.POSITION_TEXTURE, 4, 6);
+ * builder.position(0, 0, 0).texCoords(0, 0).endVertex();
+ * ...
+ * builder.quad(0, 1, 2, 3);
+ * Mesh mesh = builder.build();
+ * builder.free();
+ * </pre>
+ * The buffers are returned to a shared pool by free() and reused by later builders.
+ */
+public class MeshBuilder {
+    
+    // The free buffers, shared by every thread. Bounded so that a burst of large meshes does not keep memory forever.
+    private static final int MAX_POOLED_BUFFERS = 32;
+    private static final ArrayList<ByteBuffer> POOL = new ArrayList<ByteBuffer>();
+    
+    private VertexFormat format;
+    private ByteBuffer vertices;
+    private ByteBuffer indexBytes;
+    private IntBuffer indices;
+    
+    // The number of finished vertices.
+    private int vertexCount;
+    
+    /**
+     * Creates a builder for a mesh of the specified format
+     * @param format The layout of the vertices
+     * @param vertexCapacity The expected number of vertices. The buffer grows if it is exceeded
+     * @param indexCapacity The expected number of indices. The buffer grows if it is exceeded
+     */
+    public MeshBuilder(VertexFormat format, int vertexCapacity, int indexCapacity) {
+	this.format = format;
+	vertices = acquire(Math.max(1, vertexCapacity) * format.getStride());
+	indexBytes = acquire(Math.max(1, indexCapacity) * 4);
+	indices = indexBytes.asIntBuffer();
+    }
+    
+    /**
+     * Writes a position as three floats
+     * @param x
+     * @param y
+     * @param z
+     * @return This builder
+     */
+    public MeshBuilder position(float x, float y, float z) {
+	ensureVertexCapacity(12);
+	vertices.putFloat(x).putFloat(y).putFloat(z);
+	
+	return this;
+    }
+    
+    /**
+     * Writes texture coordinates as two floats
+     * @param u
+     * @param v
+     * @return This builder
+     */
+    public MeshBuilder texCoords(float u, float v) {
+	ensureVertexCapacity(8);
+	vertices.putFloat(u).putFloat(v);
+	
+	return this;
+    }
+    
+    /**
+     * Writes a normal as three floats
+     * @param x
+     * @param y
+     * @param z
+     * @return This builder
+     */
+    public MeshBuilder normal(float x, float y, float z) {
+	ensureVertexCapacity(12);
+	vertices.putFloat(x).putFloat(y).putFloat(z);
+	
+	return this;
+    }
+    
+    /**
+     * Writes a color as three floats
+     * @param r
+     * @param g
+     * @param b
+     * @return This builder
+     */
+    public MeshBuilder color(float r, float g, float b) {
+	ensureVertexCapacity(12);
+	vertices.putFloat(r).putFloat(g).putFloat(b);
+	
+	return this;
+    }
+    
+    /**
+     * Returns the vertex buffer with room for one more vertex, for formats that pack their attributes themselves.
+     * The vertex must be written at the current position and followed by endVertex()
+     * @return
+     */
+    public ByteBuffer getVertexBuffer() {
+	ensureVertexCapacity(format.getStride());
+	
+	return vertices;
+    }
+    
+    /**
+     * Copies whole vertices of this format, for example ones that were built earlier and stored
+     * @param data The vertices, from the position to the limit of the buffer, which is advanced past them
+     * @return This builder
+     */
+    public MeshBuilder putVertices(ByteBuffer data) {
+	if(vertices.position() != vertexCount * format.getStride() || data.remaining() % format.getStride() != 0) {
+	    throw new IllegalStateException("The data is not a whole number of vertices");
+	}
+	
+	ensureVertexCapacity(data.remaining());
+	vertexCount += data.remaining() / format.getStride();
+	vertices.put(data);
+	
+	return this;
+    }
+    
+    /**
+     * Finishes the current vertex. Every attribute of the format must have been written
+     * @return The index of the finished vertex
+     */
+    public int endVertex() {
+	if(vertices.position() != (vertexCount + 1) * format.getStride()) {
+	    throw new IllegalStateException("Vertex " + vertexCount + " does not match the stride of its format");
+	}
+	
+	return vertexCount++;
+    }
+    
+    /**
+     * Adds a triangle of the specified vertices
+     * @param i0
+     * @param i1
+     * @param i2
+     * @return This builder
+     */
+    public MeshBuilder triangle(int i0, int i1, int i2) {
+	ensureIndexCapacity(3);
+	indices.put(i0).put(i1).put(i2);
+	
+	return this;
+    }
+    
+    /**
+     * Adds two triangles that cover the quad of the specified vertices, in counter-clockwise order
+     * @param i0
+     * @param i1
+     * @param i2
+     * @param i3
+     * @return This builder
+     */
+    public MeshBuilder quad(int i0, int i1, int i2, int i3) {
+	ensureIndexCapacity(6);
+	indices.put(i0).put(i1).put(i2);
+	indices.put(i2).put(i3).put(i0);
+	
+	return this;
+    }
+    
+    /**
+     * Returns the number of finished vertices
+     * @return
+     */
+    public int getVertexCount() {
+	return vertexCount;
+    }
+    
+    /**
+     * Returns the number of bytes of vertex data written so far
+     * @return
+     */
+    public int getVertexByteSize() {
+	return vertices.position();
+    }
+    
+    /**
+     * Returns a read only view of the vertices written so far. It becomes invalid when the builder is freed or grows
+     * @return
+     */
+    public ByteBuffer getVertexData() {
+	return flipVertices().asReadOnlyBuffer().order(vertices.order());
+    }
+    
+    /**
+     * Returns the layout of the vertices
+     * @return
+     */
+    public VertexFormat getFormat() {
+	return format;
+    }
+    
+    /**
+     * Uploads the vertices and indices to a new mesh. The builder can be reset and reused afterwards.
+     * Must be called on the OpenGL thread.
+     * @return
+     */
+    public Mesh build() {
+	return new Mesh(flipVertices(), format, flipIndices());
+    }
+    
+    /**
+     * Uploads the vertices to a new mesh that renders with a shared index buffer.
+     * Must be called on the OpenGL thread.
+     * @param shared The index buffer, which is not released with the mesh
+     * @return
+     */
+    public Mesh build(IndexBuffer shared) {
+	return new Mesh(flipVertices(), format, shared);
+    }
+    
+    /**
+     * Discards the written vertices and indices so that the builder can be filled again
+     */
+    public void reset() {
+	vertices.clear();
+	indices.clear();
+	vertexCount = 0;
+    }
+    
+    /**
+     * Returns the buffers to the pool. The builder must not be used afterwards
+     */
+    public void free() {
+	if(vertices == null) {
+	    return;
+	}
+	
+	release(vertices);
+	release(indexBytes);
+	vertices = null;
+	indexBytes = null;
+	indices = null;
+    }
+    
+    /**
+     * Returns a view of the written vertices, ready for get() operations
+     * @return
+     */
+    private ByteBuffer flipVertices() {
+	ByteBuffer data = vertices.duplicate();
+	data.flip();
+	
+	return data;
+    }
+    
+    /**
+     * Returns a view of the written indices, ready for get() operations
+     * @return
+     */
+    private IntBuffer flipIndices() {
+	IntBuffer data = indices.duplicate();
+	data.flip();
+	
+	return data;
+    }
+    
+    /**
+     * Grows the vertex buffer if the specified number of bytes do not fit
+     * @param bytes
+     */
+    private void ensureVertexCapacity(int bytes) {
+	if(vertices.remaining() < bytes) {
+	    vertices = grow(vertices, vertices.capacity() * 2 + bytes);
+	}
+    }
+    
+    /**
+     * Grows the index buffer if the specified number of indices do not fit
+     * @param count
+     */
+    private void ensureIndexCapacity(int count) {
+	if(indices.remaining() < count) {
+	    final int position = indices.position();
+	    indexBytes.clear();
+	    indexBytes.position(position * 4);
+	    indexBytes = grow(indexBytes, indexBytes.capacity() * 2 + count * 4);
+	    // The view starts at the position of the bytes
+	    indexBytes.clear();
+	    indices = indexBytes.asIntBuffer();
+	    indices.position(position);
+	}
+    }
+    
+    /**
+     * Copies the written part of the specified buffer into a larger one and releases the old buffer
+     * @param buffer A buffer whose position is the end of the written data
+     * @param capacity The minimum capacity of the new buffer
+     * @return The new buffer, positioned after the copied data
+     */
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+	ByteBuffer larger = acquire(capacity);
+	buffer.flip();
+	larger.put(buffer);
+	release(buffer);
+	
+	return larger;
+    }
+    
+    /**
+     * Returns a cleared direct buffer of at least the specified capacity, from the pool if possible
+     * @param capacity
+     * @return
+     */
+    private static ByteBuffer acquire(int capacity) {
+	synchronized(POOL) {
+	    // Take the smallest buffer that fits so that large buffers stay available for large meshes
+	    int best = -1;
+	    for(int i = 0; i < POOL.size(); i++) {
+		final int size = POOL.get(i).capacity();
+		if(size >= capacity && (best == -1 || size < POOL.get(best).capacity())) {
+		    best = i;
+		}
+	    }
+	    
+	    if(best != -1) {
+		// Move the last buffer into the hole instead of shifting the list
+		ByteBuffer buffer = POOL.get(best);
+		POOL.set(best, POOL.get(POOL.size() - 1));
+		POOL.remove(POOL.size() - 1);
+		
+		buffer.clear();
+		return buffer;
+	    }
+	}
+	
+	return BufferUtils.createByteBuffer(capacity);
+    }
+    
+    /**
+     * Returns the specified buffer to the pool
+     * @param buffer
+     */
+    private static void release(ByteBuffer buffer) {
+	synchronized(POOL) {
+	    if(POOL.size() < MAX_POOLED_BUFFERS) {
+		POOL.add(buffer);
+	    }
+	}
+    }
+    
+}
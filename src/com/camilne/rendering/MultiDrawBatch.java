@@ -0,0 +1,326 @@
+package com.camilne.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.opengl.GL40;
+import org.lwjgl.opengl.GL43;
+import org.lwjgl.opengl.GLContext;
+
+/**
+ * Many meshes of the same vertex format, sub-allocated in a BufferArena of vertices and drawn with a single
+ * glMultiDrawElementsIndirect call. The meshes share an arena of 16-bit indices, whose ranges index the vertices of a
+ * mesh from 0, so every mesh has at most 65536 vertices. Every draw has a translation, held in a buffer of per instance
+ * attributes that the base instance of its command selects.
+ * <p>
+ * Without indirect drawing (before OpenGL 4.3) every draw is issued with glDrawElementsBaseVertex instead,
+ * and its translation is set as a constant attribute.
+ */
+public class MultiDrawBatch {
+    
+    // The size of a DrawElementsIndirectCommand: count, instance count, first index, base vertex, base instance.
+    private static final int COMMAND_SIZE = 20;
+    // The size of a translation: three floats.
+    private static final int TRANSLATION_SIZE = 12;
+    
+    private VertexFormat format;
+    private int translationLocation;
+    // Whether the draws are submitted with one glMultiDrawElementsIndirect call.
+    private boolean indirect;
+    
+    private int vaoid;
+    // The vertices and indices of the meshes. They grow when they run out of space.
+    private BufferArena vertices;
+    private BufferArena indices;
+    private int translationBuffer;
+    private int commandBuffer;
+    
+    // The commands and translations of the draws added since begin().
+    private ByteBuffer commands;
+    private ByteBuffer translations;
+    private int drawCount;
+    
+    /**
+     * Creates an empty batch. Must be called on the OpenGL thread.
+     * @param format The layout of the vertices
+     * @param translationLocation The attribute location of the vec3 translation in the shader
+     * @param vertexCapacity The number of vertices to make room for. The batch grows when more are added
+     * @param indexCapacity The number of indices to make room for
+     */
+    public MultiDrawBatch(VertexFormat format, int translationLocation, int vertexCapacity, int indexCapacity) {
+	this.format = format;
+	this.translationLocation = translationLocation;
+	
+	final ContextCapabilities capabilities = GLContext.createFromCurrent().getCapabilities();
+	indirect = capabilities.OpenGL43 || capabilities.GL_ARB_multi_draw_indirect;
+	
+	commands = BufferUtils.createByteBuffer(64 * COMMAND_SIZE);
+	translations = BufferUtils.createByteBuffer(64 * TRANSLATION_SIZE);
+	
+	vaoid = GLResources.track(GLResources.Type.VERTEX_ARRAY, GL30.glGenVertexArrays(), 0, "MultiDrawBatch");
+	vertices = new BufferArena((long) vertexCapacity * format.getStride(), format.getStride());
+	indices = new BufferArena(indexCapacity * 2L, 2);
+	// The stream buffers are accounted at the capacity of their client side copies, the most they are respecified with
+	translationBuffer = GLResources.track(GLResources.Type.BUFFER, GL15.glGenBuffers(), translations.capacity(), "MultiDrawBatch translations");
+	commandBuffer = GLResources.track(GLResources.Type.BUFFER, GL15.glGenBuffers(), commands.capacity(), "MultiDrawBatch commands");
+	
+	// The attributes stay enabled, as the VAO is only used by this batch
+	GLState.bindVertexArray(vaoid);
+	pointAttributes();
+	GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indices.getID());
+	for(int i = 0; i < format.getAttributeCount(); i++) {
+	    GL20.glEnableVertexAttribArray(format.getLocation(i));
+	}
+	if(indirect) {
+	    GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, translationBuffer);
+	    GL20.glVertexAttribPointer(translationLocation, 3, GL11.GL_FLOAT, false, TRANSLATION_SIZE, 0);
+	    GL33.glVertexAttribDivisor(translationLocation, 1);
+	    GL20.glEnableVertexAttribArray(translationLocation);
+	}
+	GLState.bindVertexArray(0);
+	GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+    }
+    
+    /**
+     * Copies the vertices of a mesh into the vertex arena. Must be called on the OpenGL thread
+     * @param data At most 65536 vertices laid out as the format of the batch, ready for get() operations
+     * @return The base vertex of the mesh, to draw and free it with
+     */
+    public int allocate(ByteBuffer data) {
+	if(data.remaining() > 0x10000 * format.getStride()) {
+	    throw new IllegalArgumentException("Meshes of more than 65536 vertices cannot use 16-bit indices");
+	}
+	
+	long offset = vertices.allocate(data.remaining());
+	if(offset == -1) {
+	    // Rare, as the arena starts out large enough for the expected meshes
+	    vertices.grow(Math.max(vertices.getSize() * 2, vertices.getSize() + data.remaining()));
+	    GLState.bindVertexArray(vaoid);
+	    pointAttributes();
+	    GLState.bindVertexArray(0);
+	    GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	    offset = vertices.allocate(data.remaining());
+	}
+	vertices.upload(offset, data);
+	
+	return (int) (offset / format.getStride());
+    }
+    
+    /**
+     * Returns the vertices of a mesh to the arena. They must not be drawn anymore
+     * @param baseVertex The base vertex that allocate() returned
+     * @param vertexCount The number of vertices of the mesh
+     */
+    public void free(int baseVertex, int vertexCount) {
+	vertices.free((long) baseVertex * format.getStride(), (long) vertexCount * format.getStride());
+    }
+    
+    /**
+     * Copies indices into the index arena. Must be called on the OpenGL thread
+     * @param data Indices into the vertices of a mesh, ready for get() operations
+     * @return The range of the indices in the index buffer
+     */
+    public Range addIndices(ShortBuffer data) {
+	final long bytes = data.remaining() * 2L;
+	long offset = indices.allocate(bytes);
+	if(offset == -1) {
+	    indices.grow(Math.max(indices.getSize() * 2, indices.getSize() + bytes));
+	    
+	    // The VAO keeps the index buffer it was bound with
+	    GLState.bindVertexArray(vaoid);
+	    GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indices.getID());
+	    GLState.bindVertexArray(0);
+	    offset = indices.allocate(bytes);
+	}
+	indices.upload(offset, data);
+	
+	return new Range((int) (offset / 2), data.remaining());
+    }
+    
+    /**
+     * Returns the indices of the specified range to the arena. They must not be drawn anymore
+     * @param range
+     */
+    public void removeIndices(Range range) {
+	indices.free(range.first * 2L, range.count * 2L);
+    }
+    
+    /**
+     * Starts a new list of draws
+     */
+    public void begin() {
+	drawCount = 0;
+    }
+    
+    /**
+     * Adds a draw of a mesh to the list
+     * @param baseVertex The base vertex of the mesh
+     * @param indices The indices to draw the mesh with
+     * @param x The translation of the mesh
+     * @param y
+     * @param z
+     */
+    public void add(int baseVertex, Range indices, float x, float y, float z) {
+	if(drawCount * COMMAND_SIZE == commands.capacity()) {
+	    commands = BufferUtils.createByteBuffer(commands.capacity() * 2).put(commands);
+	    translations = BufferUtils.createByteBuffer(translations.capacity() * 2).put(translations);
+	    commands.clear();
+	    translations.clear();
+	    GLResources.setByteSize(GLResources.Type.BUFFER, translationBuffer, translations.capacity());
+	    GLResources.setByteSize(GLResources.Type.BUFFER, commandBuffer, commands.capacity());
+	}
+	
+	final int command = drawCount * COMMAND_SIZE;
+	commands.putInt(command, indices.count);
+	commands.putInt(command + 4, 1);
+	commands.putInt(command + 8, indices.first);
+	commands.putInt(command + 12, baseVertex);
+	// The instance is the index of the translation
+	commands.putInt(command + 16, drawCount);
+	
+	final int translation = drawCount * TRANSLATION_SIZE;
+	translations.putFloat(translation, x);
+	translations.putFloat(translation + 4, y);
+	translations.putFloat(translation + 8, z);
+	
+	drawCount++;
+    }
+    
+    /**
+     * Draws the list as triangles. The shader must be bound
+     */
+    public void render() {
+	if(drawCount == 0) {
+	    return;
+	}
+	
+	GLState.bindVertexArray(vaoid);
+	
+	if(indirect) {
+	    // Respecifying the buffers lets the driver keep the ones of the previous pass in use
+	    commands.limit(drawCount * COMMAND_SIZE);
+	    translations.limit(drawCount * TRANSLATION_SIZE);
+	    GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, translationBuffer);
+	    GL15.glBufferData(GL15.GL_ARRAY_BUFFER, translations, GL15.GL_STREAM_DRAW);
+	    GL15.glBindBuffer(GL40.GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+	    GL15.glBufferData(GL40.GL_DRAW_INDIRECT_BUFFER, commands, GL15.GL_STREAM_DRAW);
+	    commands.clear();
+	    translations.clear();
+	    
+	    GL43.glMultiDrawElementsIndirect(GL11.GL_TRIANGLES, GL11.GL_UNSIGNED_SHORT, 0, drawCount, 0);
+	    
+	    GL15.glBindBuffer(GL40.GL_DRAW_INDIRECT_BUFFER, 0);
+	    GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	} else {
+	    for(int i = 0; i < drawCount; i++) {
+		final int command = i * COMMAND_SIZE;
+		final int translation = i * TRANSLATION_SIZE;
+		GL20.glVertexAttrib3f(translationLocation, translations.getFloat(translation), translations.getFloat(translation + 4), translations.getFloat(translation + 8));
+		GL32.glDrawElementsBaseVertex(GL11.GL_TRIANGLES, commands.getInt(command), GL11.GL_UNSIGNED_SHORT, commands.getInt(command + 8) * 2L, commands.getInt(command + 12));
+	    }
+	    // The constant attribute is not part of the VAO, so other meshes would be translated as well
+	    GL20.glVertexAttrib3f(translationLocation, 0, 0, 0);
+	}
+    }
+    
+    /**
+     * Returns the id of the VAO of the batch
+     * @return
+     */
+    public int getID() {
+	return vaoid;
+    }
+    
+    /**
+     * Returns whether the draws are submitted with one glMultiDrawElementsIndirect call
+     * @return
+     */
+    public boolean isIndirect() {
+	return indirect;
+    }
+    
+    /**
+     * Returns the arena of the vertices, which holds its usage and fragmentation
+     * @return
+     */
+    public BufferArena getVertexArena() {
+	return vertices;
+    }
+    
+    /**
+     * Returns the arena of the indices
+     * @return
+     */
+    public BufferArena getIndexArena() {
+	return indices;
+    }
+    
+    /**
+     * Returns the number of draws added since begin()
+     * @return
+     */
+    public int getDrawCount() {
+	return drawCount;
+    }
+    
+    /**
+     * Releases the buffers of this batch from VRAM at the end of the frame
+     */
+    public void dispose() {
+	GLResources.release(GLResources.Type.VERTEX_ARRAY, vaoid);
+	vertices.dispose();
+	indices.dispose();
+	GLResources.release(GLResources.Type.BUFFER, translationBuffer);
+	GLResources.release(GLResources.Type.BUFFER, commandBuffer);
+    }
+    
+    /**
+     * Points the vertex attributes of the bound VAO at the vertex buffer
+     */
+    private void pointAttributes() {
+	GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vertices.getID());
+	for(int i = 0; i < format.getAttributeCount(); i++) {
+	    GL20.glVertexAttribPointer(format.getLocation(i), format.getSize(i), format.getType(i), format.isNormalized(i), format.getStride(), format.getOffset(i));
+	}
+    }
+    
+    /**
+     * A range of the shared index buffer
+     */
+    public static class Range {
+	
+	private int first;
+	private int count;
+	
+	private Range(int first, int count) {
+	    this.first = first;
+	    this.count = count;
+	}
+	
+	/**
+	 * Returns the position of the first index in the index buffer
+	 * @return
+	 */
+	public int getFirst() {
+	    return first;
+	}
+	
+	/**
+	 * Returns the number of indices
+	 * @return
+	 */
+	public int getCount() {
+	    return count;
+	}
+    
+    }
+    
+}
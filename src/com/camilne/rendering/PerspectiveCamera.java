@@ -9,6 +9,9 @@ public class PerspectiveCamera extends Camera{
     private float aspect;
     private float zNear;
     private float zFar;
+    
+    // The planes of the view volume in world space. Extracted on every update.
+    private Frustum frustum;
 
     /**
      * Creates a new PerspectiveCamera with the specified projection properties
@@ -24,6 +27,8 @@ public class PerspectiveCamera extends Camera{
 	this.aspect = aspect;
 	this.zNear = zNear;
 	this.zFar = zFar;
+	
+	frustum = new Frustum();
     }
     
     public PerspectiveCamera(PerspectiveCamera other) {
@@ -33,6 +38,35 @@ public class PerspectiveCamera extends Camera{
 	this.aspect = other.aspect;
 	this.zNear = other.zNear;
 	this.zFar = other.zFar;
+	
+	frustum = new Frustum(other.frustum);
+    }
+    
+    /**
+     * Updates the view matrix and the frustum planes
+     */
+    @Override
+    public void update() {
+	super.update();
+	frustum.update(getProjection(), getView());
+    }
+    
+    /**
+     * Copies the state of the specified camera into this one, and updates the frustum to match it
+     * @param other
+     */
+    @Override
+    public void set(final Camera other) {
+	super.set(other);
+	
+	if(other instanceof PerspectiveCamera) {
+	    final PerspectiveCamera perspective = (PerspectiveCamera) other;
+	    fov = perspective.fov;
+	    aspect = perspective.aspect;
+	    zNear = perspective.zNear;
+	    zFar = perspective.zFar;
+	}
+	frustum.update(getProjection(), getView());
     }
     
     /**
@@ -97,6 +131,14 @@ public class PerspectiveCamera extends Camera{
     public float getzFar() {
         return zFar;
     }
+    
+    /**
+     * Returns the planes of the view volume as of the last update
+     * @return
+     */
+    public Frustum getFrustum() {
+	return frustum;
+    }
 
     public PerspectiveCamera copy() {
 	PerspectiveCamera res = new PerspectiveCamera(fov, aspect, zNear, zFar);
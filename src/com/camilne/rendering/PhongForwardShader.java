@@ -1,6 +1,7 @@
 package com.camilne.rendering;
 
 import java.io.IOException;
+import java.util.HashMap;
 
 
 public class PhongForwardShader extends Shader{
@@ -8,6 +9,10 @@ public class PhongForwardShader extends Shader{
     // The maximun number of point lights allowed to render
     public static final int MAX_POINT_LIGHTS = 4;
     
+    // The components of the DirectionalLight uniforms: direction, ambient and diffuse. Filled by addCustomUniform()
+    // while the super constructor runs, so the field must not have an initializer that would reset it.
+    private HashMap<String, Uniform[]> directionalLights;
+    
     /**
      * Creates a new PhongShader
      */
@@ -15,23 +20,6 @@ public class PhongForwardShader extends Shader{
 	super(name);
     }
     
-    /**
-     * Updates the shader uniforms
-     * @param camera The current camera
-     * @param sun The sun DirectionalLight
-     * @param lights The PointLights in the scene
-     */
-    public void update(Camera camera, DirectionalLight sun)	 {
-	// Update the transformation matrices
-	setUniform("m_proj", camera.getProjection());
-	setUniform("m_view", camera.getView());
-	
-	// Update the sun
-	if(sun != null) {
-	    setUniform("dir_light", sun);
-	}
-    }
-    
     private static final String DIR_LIGHT_UNIFORM = "DirectionalLight";
     
     /**
@@ -46,6 +34,13 @@ public class PhongForwardShader extends Shader{
 	    addUniform(name + ".direction");
 	    addUniform(name + ".ambient");
 	    addUniform(name + ".diffuse");
+	    
+	    if(directionalLights == null) {
+		directionalLights = new HashMap<String, Uniform[]>();
+	    }
+	    directionalLights.put(name, new Uniform[] {
+		getUniform(name + ".direction"), getUniform(name + ".ambient"), getUniform(name + ".diffuse")
+	    });
 	}
     }
     
@@ -55,9 +50,23 @@ public class PhongForwardShader extends Shader{
      * @param value The DirectionalLight value
      */
     public void setUniform(String uniform, DirectionalLight value) {
-	setUniform(uniform + ".direction", value.getDirection());
-	setUniform(uniform + ".ambient", value.getAmbient());
-	setUniform(uniform + ".diffuse", value.getDiffuse());
+	final Uniform[] components = directionalLights == null ? null : directionalLights.get(uniform);
+	if(components == null) {
+	    throw new IllegalArgumentException("DirectionalLight uniform [" + uniform + "] does not exist");
+	}
+	
+	setUniform(components, value);
+    }
+    
+    /**
+     * Sets the components of a DirectionalLight uniform
+     * @param components The direction, ambient and diffuse uniforms
+     * @param value
+     */
+    private static void setUniform(Uniform[] components, DirectionalLight value) {
+	components[0].set(value.getDirection());
+	components[1].set(value.getAmbient());
+	components[2].set(value.getDiffuse());
     }
 
 }
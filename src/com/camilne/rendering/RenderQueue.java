@@ -0,0 +1,205 @@
+package com.camilne.rendering;
+
+import java.util.Arrays;
+
+/**
+ * Collects the draws of a view, each with a 64-bit sort key, and executes them in the order of their keys.
+ * Keys are packed from the most significant bits down as pass (4 bits), shader (12), texture (12), mesh (12)
+ * and depth (24), so draws are grouped by pass, then by state so that GLState skips the repeated binds,
+ * then ordered by depth within the same state, e.g. front to back for early depth rejection.
+ * The keys are sorted with a least significant digit radix sort into arrays that are reused every frame.
+ */
+public class RenderQueue {
+    
+    /**
+     * A draw that the queue executes
+     */
+    public interface Command {
+	
+	/**
+	 * Issues the draw
+	 * @param argument The argument it was added with, e.g. the index of what to draw
+	 */
+	public void execute(int argument);
+    
+    }
+    
+    public static final int PASS_BITS = 4;
+    public static final int SHADER_BITS = 12;
+    public static final int TEXTURE_BITS = 12;
+    public static final int MESH_BITS = 12;
+    public static final int DEPTH_BITS = 24;
+    
+    // The largest depth that fits in the key.
+    private static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+    // The number of bits sorted per radix pass, and the number of buckets per pass.
+    private static final int RADIX_BITS = 8;
+    private static final int BUCKETS = 1 << RADIX_BITS;
+    
+    private long[] keys;
+    private Command[] commands;
+    private int[] arguments;
+    private int size;
+    
+    // The order of the items after sort(), and the scratch arrays of the radix sort.
+    private int[] order;
+    private long[] sortedKeys;
+    private long[] keyScratch;
+    private int[] orderScratch;
+    private int[] counts;
+    private boolean sorted;
+    
+    /**
+     * Creates an empty queue
+     * @param capacity The number of draws to make room for. The queue grows when more are added
+     */
+    public RenderQueue(int capacity) {
+	capacity = Math.max(capacity, 16);
+	keys = new long[capacity];
+	commands = new Command[capacity];
+	arguments = new int[capacity];
+	order = new int[capacity];
+	sortedKeys = new long[capacity];
+	keyScratch = new long[capacity];
+	orderScratch = new int[capacity];
+	counts = new int[BUCKETS];
+    }
+    
+    /**
+     * Packs a sort key. Every id is truncated to its number of bits, which only affects how well draws are grouped
+     * @param pass The pass to draw in, executed in ascending order
+     * @param shader The id of the program, or 0 if it does not matter
+     * @param texture The id of the main texture, or 0
+     * @param mesh The id of the VAO, or 0
+     * @param depth The depth from 0 to 1, executed in ascending order. Use 1 - depth to draw back to front
+     * @return
+     */
+    public static long key(int pass, int shader, int texture, int mesh, float depth) {
+	final long quantized = (long) (Math.min(Math.max(depth, 0), 1) * MAX_DEPTH);
+	
+	return ((long) (pass & ((1 << PASS_BITS) - 1)) << (SHADER_BITS + TEXTURE_BITS + MESH_BITS + DEPTH_BITS))
+		| ((long) (shader & ((1 << SHADER_BITS) - 1)) << (TEXTURE_BITS + MESH_BITS + DEPTH_BITS))
+		| ((long) (texture & ((1 << TEXTURE_BITS) - 1)) << (MESH_BITS + DEPTH_BITS))
+		| ((long) (mesh & ((1 << MESH_BITS) - 1)) << DEPTH_BITS)
+		| quantized;
+    }
+    
+    /**
+     * Removes every draw, e.g. at the start of a view
+     */
+    public void clear() {
+	// Drop the references to the commands so that nothing is kept alive by an old frame
+	Arrays.fill(commands, 0, size, null);
+	size = 0;
+	sorted = false;
+    }
+    
+    /**
+     * Adds a draw
+     * @param key The sort key, see key()
+     * @param command
+     * @param argument Passed to the command when it is executed
+     */
+    public void add(long key, Command command, int argument) {
+	if(size == keys.length) {
+	    grow();
+	}
+	
+	keys[size] = key;
+	commands[size] = command;
+	arguments[size] = argument;
+	size++;
+	sorted = false;
+    }
+    
+    /**
+     * Orders the draws by their keys. Draws with equal keys keep the order they were added in
+     */
+    public void sort() {
+	for(int i = 0; i < size; i++) {
+	    order[i] = i;
+	    sortedKeys[i] = keys[i];
+	}
+	
+	long[] keysFrom = sortedKeys;
+	long[] keysTo = keyScratch;
+	int[] orderFrom = order;
+	int[] orderTo = orderScratch;
+	for(int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+	    Arrays.fill(counts, 0);
+	    for(int i = 0; i < size; i++) {
+		counts[(int) (keysFrom[i] >>> shift) & (BUCKETS - 1)]++;
+	    }
+	    
+	    // A digit that every key shares does not change the order
+	    if(counts[(int) (keysFrom[0] >>> shift) & (BUCKETS - 1)] == size) {
+		continue;
+	    }
+	    
+	    // Turn the counts into the first position of every bucket
+	    int position = 0;
+	    for(int bucket = 0; bucket < BUCKETS; bucket++) {
+		final int count = counts[bucket];
+		counts[bucket] = position;
+		position += count;
+	    }
+	    
+	    for(int i = 0; i < size; i++) {
+		final int destination = counts[(int) (keysFrom[i] >>> shift) & (BUCKETS - 1)]++;
+		keysTo[destination] = keysFrom[i];
+		orderTo[destination] = orderFrom[i];
+	    }
+	    
+	    final long[] keysSwap = keysFrom;
+	    keysFrom = keysTo;
+	    keysTo = keysSwap;
+	    final int[] orderSwap = orderFrom;
+	    orderFrom = orderTo;
+	    orderTo = orderSwap;
+	}
+	
+	// Keep the result in the fields that execute() reads
+	sortedKeys = keysFrom;
+	keyScratch = keysTo;
+	order = orderFrom;
+	orderScratch = orderTo;
+	sorted = true;
+    }
+    
+    /**
+     * Executes the draws in the order of their keys, sorting them first if needed
+     */
+    public void execute() {
+	if(!sorted) {
+	    sort();
+	}
+	
+	for(int i = 0; i < size; i++) {
+	    final int item = order[i];
+	    commands[item].execute(arguments[item]);
+	}
+    }
+    
+    /**
+     * Returns the number of draws in the queue
+     * @return
+     */
+    public int size() {
+	return size;
+    }
+    
+    /**
+     * Doubles the capacity of the queue
+     */
+    private void grow() {
+	final int capacity = keys.length * 2;
+	keys = Arrays.copyOf(keys, capacity);
+	commands = Arrays.copyOf(commands, capacity);
+	arguments = Arrays.copyOf(arguments, capacity);
+	order = new int[capacity];
+	sortedKeys = new long[capacity];
+	keyScratch = new long[capacity];
+	orderScratch = new int[capacity];
+    }
+    
+}
@@ -3,17 +3,17 @@ package com.camilne.rendering;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
 import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL31;
 import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector3f;
 import org.lwjgl.util.vector.Vector4f;
 
-import com.camilne.util.Util;
-
 
 public class Shader {
     
@@ -22,7 +22,10 @@ public class Shader {
     public static String fragmentExtension = "fs";
     
     private int pid;
-    private HashMap<String, Integer> uniforms;
+    // The shader parts that are compiled but not yet linked.
+    private ArrayList<Integer> shaderids = new ArrayList<Integer>();
+    // The uniforms by name, resolved when the program is linked.
+    private HashMap<String, Uniform> uniforms;
     
     /**
      * Creates a shader with the specified file name.
@@ -30,10 +33,10 @@ public class Shader {
      */
     public Shader(String name) throws IOException {
 	// Create the program id
-	pid = GL20.glCreateProgram();
+	pid = GLResources.track(GLResources.Type.PROGRAM, GL20.glCreateProgram(), 0, "Shader " + name);
 	
 	// Instantiate the uniform lookup
-	uniforms = new HashMap<String, Integer>();
+	uniforms = new HashMap<String, Uniform>();
 	
 	// Add the vertex shader to the program
 	String vertSource = addShader(GL20.GL_VERTEX_SHADER, path + name + "." + vertexExtension);
@@ -42,20 +45,24 @@ public class Shader {
 	
 	// Link the program
 	GL20.glLinkProgram(pid);
+	// The shader parts are only needed for linking. They stay alive while attached to the program
+	for(int id : shaderids)
+	    GLResources.release(GLResources.Type.SHADER, id);
+	shaderids.clear();
 	// Check if linking was successful
 	closeIfProgramError(GL20.glGetProgrami(pid, GL20.GL_LINK_STATUS) == 0, pid);
 	
-	// Validate the program
-	GL20.glValidateProgram(pid);
-	// Check if validation was successful
-	closeIfProgramError(GL20.glGetProgrami(pid, GL20.GL_VALIDATE_STATUS) == 0, pid);
-	
 	// Bind the shader
 	bind();
 	
-	// Automatically add uniforms
+	// Automatically add uniforms, setting the samplers to their registered texture units
 	autoAddUniforms(vertSource);
 	autoAddUniforms(fragSource);
+	
+	// Validate the program. Only now, since samplers of different types fail validation while they share a unit
+	GL20.glValidateProgram(pid);
+	// Check if validation was successful
+	closeIfProgramError(GL20.glGetProgrami(pid, GL20.GL_VALIDATE_STATUS) == 0, pid);
     }
     
     /**
@@ -86,7 +93,8 @@ public class Shader {
 	shaderSource = builder.toString();
 	
 	// The id of the shader part
-	int id = GL20.glCreateShader(type);
+	int id = GLResources.track(GLResources.Type.SHADER, GL20.glCreateShader(type), 0, "Shader " + fileName);
+	shaderids.add(id);
 	
 	// Set the source of the shader
 	GL20.glShaderSource(id, shaderSource);
@@ -126,12 +134,19 @@ public class Shader {
 	"samplerCubeArray", "samplerCubeArrayShadow", "isamplerCubeArray", "usamplerCubeArray"
     };
     
+    // The binding points of the uniform blocks by name
+    private static final HashMap<String, Integer> BLOCK_BINDINGS = new HashMap<String, Integer>();
+    // The texture units of the samplers by name. Samplers that are not registered read unit 0
+    private static final HashMap<String, Integer> SAMPLER_UNITS = new HashMap<String, Integer>();
+    
     /**
      * Fills the TYPE_KEYWORDS Set with all the GLSL type keywords for easy lookup
      */
     static {
 	for(String keyword : KEYWORDS_ARRAY)
 	    TYPE_KEYWORDS.add(keyword);
+	
+	BLOCK_BINDINGS.put(FrameUniforms.BLOCK_NAME, FrameUniforms.BINDING);
     }
     
     /**
@@ -142,32 +157,141 @@ public class Shader {
 	// The uniform keyword to detect uniforms
 	final String UNIFORM_KEYWORD = "uniform";
 	
+	// Comments may mention the keyword or follow a declaration, so they are left out
+	final String source = removeComments(shaderSource);
+	
 	// Holds the start location of the current uniform
 	int uniformLocation = -1;
 	
 	// Iterates through the shader source looking for the uniform keyword
-	while((uniformLocation = shaderSource.indexOf(UNIFORM_KEYWORD, ++uniformLocation)) != -1) {
-	    // Holds the location of the end of the line
-	    int newLineLocation = shaderSource.indexOf("\n", uniformLocation);
-	    // The line that the uniform is declared on
-	    String line = shaderSource.substring(uniformLocation, newLineLocation).trim();
-	    // The different tokens (words) of the line
-	    String[] tokens = line.split(" ");
+	while((uniformLocation = source.indexOf(UNIFORM_KEYWORD, ++uniformLocation)) != -1) {
+	    final int keywordEnd = uniformLocation + UNIFORM_KEYWORD.length();
+	    // Skip identifiers that only contain the keyword
+	    if(isIdentifierPart(source, uniformLocation - 1) || isIdentifierPart(source, keywordEnd)) {
+		continue;
+	    }
+	    
+	    // The declaration ends with a semicolon, or is a block if a brace comes first. It may span several lines
+	    int end = keywordEnd;
+	    while(end < source.length() && source.charAt(end) != ';' && source.charAt(end) != '{') {
+		end++;
+	    }
+	    if(end == source.length()) {
+		break;
+	    }
+	    // The different tokens (words) of the declaration, without an initializer
+	    String declaration = source.substring(keywordEnd, end);
+	    if(declaration.indexOf('=') != -1) {
+		declaration = declaration.substring(0, declaration.indexOf('='));
+	    }
+	    String[] tokens = declaration.trim().split("\\s+");
+	    
+	    // A uniform block, whose members are not uniforms of their own
+	    if(source.charAt(end) == '{') {
+		addUniformBlock(tokens[0]);
+		uniformLocation = source.indexOf('}', end);
+		if(uniformLocation == -1) {
+		    break;
+		}
+		continue;
+	    }
 	    
-	    // Holds the name of the uniform
-	    String name = tokens[2].substring(0, tokens[2].length() - 1).trim();
+	    // Holds the name of the uniform, which follows its type and any qualifiers
+	    String name = tokens[tokens.length - 1];
 	    // Holds the type of the uniform
-	    String type = tokens[1].trim();
+	    String type = tokens[tokens.length - 2];
 	    
 	    // Adds the uniform to the shader program and HashMap lookup
 	    if(TYPE_KEYWORDS.contains(type)) {
 		addUniform(name);
+		if(type.contains("sampler") && SAMPLER_UNITS.containsKey(name)) {
+		    uniforms.get(name).set(SAMPLER_UNITS.get(name));
+		}
 	    } else {
 		addCustomUniform(type, name);
 	    }
 	}
     }
     
+    /**
+     * Returns the shader source with its comments replaced by spaces, keeping the line breaks
+     * @param source
+     * @return
+     */
+    private static String removeComments(String source) {
+	final StringBuilder builder = new StringBuilder(source);
+	int i = 0;
+	while(i < builder.length() - 1) {
+	    if(builder.charAt(i) == '/' && builder.charAt(i + 1) == '/') {
+		while(i < builder.length() && builder.charAt(i) != '\n') {
+		    builder.setCharAt(i++, ' ');
+		}
+	    } else if(builder.charAt(i) == '/' && builder.charAt(i + 1) == '*') {
+		final int end = builder.indexOf("*/", i + 2);
+		final int commentEnd = end == -1 ? builder.length() : end + 2;
+		for(; i < commentEnd; i++) {
+		    if(builder.charAt(i) != '\n') {
+			builder.setCharAt(i, ' ');
+		    }
+		}
+	    } else {
+		i++;
+	    }
+	}
+	
+	return builder.toString();
+    }
+    
+    /**
+     * Returns whether the character at the specified index can be part of an identifier
+     * @param source
+     * @param index May be outside of the source
+     * @return
+     */
+    private static boolean isIdentifierPart(String source, int index) {
+	return index >= 0 && index < source.length() && (Character.isLetterOrDigit(source.charAt(index)) || source.charAt(index) == '_');
+    }
+    
+    /**
+     * Binds the specified uniform block of this shader to the binding point registered for its name
+     * @param block The name of the block
+     */
+    private void addUniformBlock(String block) {
+	final int index = GL31.glGetUniformBlockIndex(pid, block);
+	final Integer binding = BLOCK_BINDINGS.get(block);
+	
+	if(index == GL31.GL_INVALID_INDEX) {
+	    System.err.println("Error in Shader.addUniformBlock(): uniform block [" + block + "] does not exist");
+	    System.exit(1);
+	}
+	if(binding == null) {
+	    System.err.println("Error in Shader.addUniformBlock(): uniform block [" + block + "] has no binding point");
+	    System.exit(1);
+	}
+	
+	GL31.glUniformBlockBinding(pid, index, binding);
+    }
+    
+    /**
+     * Registers the binding point that the uniform blocks of the specified name are read from.
+     * Applies to the shaders created afterwards
+     * @param block
+     * @param binding
+     */
+    public static void setBlockBinding(String block, int binding) {
+	BLOCK_BINDINGS.put(block, binding);
+    }
+    
+    /**
+     * Registers the texture unit that the samplers of the specified name read from.
+     * Applies to the shaders created afterwards, which set the sampler before the program is validated
+     * @param sampler
+     * @param unit The index of the unit, e.g. 1 for GL_TEXTURE1
+     */
+    public static void setSamplerUnit(String sampler, int unit) {
+	SAMPLER_UNITS.put(sampler, unit);
+    }
+    
     /**
      * Method to be overridden by child class to add custom uniforms like structs
      * @param type The type of the uniform
@@ -205,14 +329,29 @@ public class Shader {
      * Binds this shader
      */
     public void bind() {
-	GL20.glUseProgram(pid);
+	GLState.useProgram(pid);
+    }
+    
+    /**
+     * Returns the id of the program
+     * @return
+     */
+    public int getID() {
+	return pid;
+    }
+    
+    /**
+     * Releases the program from VRAM at the end of the frame
+     */
+    public void dispose() {
+	GLResources.release(GLResources.Type.PROGRAM, pid);
     }
     
     /**
      * Unbinds this shader
      */
     public void unbind() {
-	GL20.glUseProgram(0);
+	GLState.useProgram(0);
     }
     
     /**
@@ -239,7 +378,21 @@ public class Shader {
 	}
 	
 	// Add the uniform to the lookup table
-	uniforms.put(uniform, location);
+	uniforms.put(uniform, new Uniform(uniform, location));
+    }
+    
+    /**
+     * Returns the handle of the specified uniform, to set it without looking it up by name every time
+     * @param uniform
+     * @return
+     */
+    public Uniform getUniform(String uniform) {
+	final Uniform handle = uniforms.get(uniform);
+	if(handle == null) {
+	    throw new IllegalArgumentException("Uniform [" + uniform + "] does not exist");
+	}
+	
+	return handle;
     }
     
     /**
@@ -248,7 +401,7 @@ public class Shader {
      * @param value The integer value
      */
     public void setUniform(String uniform, int value) {
-	GL20.glUniform1i(uniforms.get(uniform), value);
+	getUniform(uniform).set(value);
     }
     
     /**
@@ -257,7 +410,7 @@ public class Shader {
      * @param value The float value
      */
     public void setUniform(String uniform, float value) {
-	GL20.glUniform1f(uniforms.get(uniform), value);
+	getUniform(uniform).set(value);
     }
     
     /**
@@ -266,7 +419,7 @@ public class Shader {
      * @param value The Vector3f value
      */
     public void setUniform(String uniform, Vector3f value) {
-	GL20.glUniform3f(uniforms.get(uniform), value.x, value.y, value.z);
+	getUniform(uniform).set(value);
     }
     
     /**
@@ -275,7 +428,7 @@ public class Shader {
      * @param value The Vector4f value
      */
     public void setUniform(String uniform, Vector4f value) {
-	GL20.glUniform4f(uniforms.get(uniform), value.x, value.y, value.z, value.w);
+	getUniform(uniform).set(value);
     }
 
     /**
@@ -284,7 +437,7 @@ public class Shader {
      * @param value The Matrix4f value
      */
     public void setUniform(String uniform, Matrix4f value) {
-	GL20.glUniformMatrix4fv(uniforms.get(uniform), false, Util.toBuffer(value));
+	getUniform(uniform).set(value);
     }
     
     /**
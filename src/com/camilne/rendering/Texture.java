@@ -58,8 +58,7 @@ public class Texture {
      * @param activeTexture The active texture to bind to
      */
     public void bind(int activeTexture) {
-	GL13.glActiveTexture(activeTexture);
-	GL11.glBindTexture(GL11.GL_TEXTURE_2D, id);
+	GLState.bindTexture(GL11.GL_TEXTURE_2D, activeTexture - GL13.GL_TEXTURE0, id);
     }
     
     /**
@@ -74,9 +73,16 @@ public class Texture {
      * @param activeTexture The active texture to release
      */
     public void dispose(int activeTexture) {
-	GL13.glActiveTexture(activeTexture);
-	GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
-	GL11.glDeleteTextures(id);
+	GLState.bindTexture(GL11.GL_TEXTURE_2D, activeTexture - GL13.GL_TEXTURE0, 0);
+	GLResources.release(GLResources.Type.TEXTURE, id);
+    }
+    
+    /**
+     * Returns the id of this texture
+     * @return
+     */
+    public int getID() {
+	return id;
     }
     
     /**
@@ -118,7 +124,7 @@ public class Texture {
 	int height = image.getHeight();
 	
 	// Get a new texture id
-	int id = GL11.glGenTextures();
+	int id = GLResources.track(GLResources.Type.TEXTURE, GL11.glGenTextures(), (long) width * height * 4, "Texture " + name);
 	
 	// Store the image data into a pixel array
 	int[] pixels = new int[width * height * 4];
@@ -0,0 +1,166 @@
+package com.camilne.rendering;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.lwjgl.util.vector.Vector4f;
+
+/**
+ * A uniform of a shader program, resolved once when the program is linked. Remembers the value it was last set to,
+ * and only uploads a value that differs from it, so setting a uniform every frame costs nothing when it stays the same.
+ * The program must be bound when a value is set, as with glUniform.
+ */
+public class Uniform {
+    
+    // Holds a matrix while it is uploaded. Uniforms are only set on the OpenGL thread.
+    private static final FloatBuffer SCRATCH = BufferUtils.createFloatBuffer(16);
+    
+    private String name;
+    private int location;
+    
+    // The last uploaded value, as floats or as an int.
+    private float[] values;
+    private int intValue;
+    // The number of floats in values, or 0 if an int or nothing was uploaded.
+    private int size;
+    private boolean intSet;
+    
+    /**
+     * Creates a handle to the uniform at the specified location
+     * @param name
+     * @param location
+     */
+    Uniform(String name, int location) {
+	this.name = name;
+	this.location = location;
+	values = new float[16];
+    }
+    
+    /**
+     * Sets the uniform to the specified int, e.g. a boolean or sampler
+     * @param value
+     */
+    public void set(int value) {
+	if(intSet && intValue == value) {
+	    return;
+	}
+	
+	intValue = value;
+	intSet = true;
+	GL20.glUniform1i(location, value);
+    }
+    
+    /**
+     * Sets the uniform to the specified float
+     * @param value
+     */
+    public void set(float value) {
+	if(size == 1 && values[0] == value) {
+	    return;
+	}
+	
+	values[0] = value;
+	size = 1;
+	GL20.glUniform1f(location, value);
+    }
+    
+    /**
+     * Sets the uniform to the specified vec3
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void set(float x, float y, float z) {
+	if(size == 3 && values[0] == x && values[1] == y && values[2] == z) {
+	    return;
+	}
+	
+	values[0] = x;
+	values[1] = y;
+	values[2] = z;
+	size = 3;
+	GL20.glUniform3f(location, x, y, z);
+    }
+    
+    /**
+     * Sets the uniform to the specified vec3
+     * @param value
+     */
+    public void set(Vector3f value) {
+	set(value.x, value.y, value.z);
+    }
+    
+    /**
+     * Sets the uniform to the specified vec4
+     * @param x
+     * @param y
+     * @param z
+     * @param w
+     */
+    public void set(float x, float y, float z, float w) {
+	if(size == 4 && values[0] == x && values[1] == y && values[2] == z && values[3] == w) {
+	    return;
+	}
+	
+	values[0] = x;
+	values[1] = y;
+	values[2] = z;
+	values[3] = w;
+	size = 4;
+	GL20.glUniform4f(location, x, y, z, w);
+    }
+    
+    /**
+     * Sets the uniform to the specified vec4
+     * @param value
+     */
+    public void set(Vector4f value) {
+	set(value.x, value.y, value.z, value.w);
+    }
+    
+    /**
+     * Sets the uniform to the specified mat4
+     * @param value
+     */
+    public void set(Matrix4f value) {
+	final float[] v = values;
+	if(size == 16
+		&& v[0] == value.m00 && v[1] == value.m01 && v[2] == value.m02 && v[3] == value.m03
+		&& v[4] == value.m10 && v[5] == value.m11 && v[6] == value.m12 && v[7] == value.m13
+		&& v[8] == value.m20 && v[9] == value.m21 && v[10] == value.m22 && v[11] == value.m23
+		&& v[12] == value.m30 && v[13] == value.m31 && v[14] == value.m32 && v[15] == value.m33) {
+	    return;
+	}
+	
+	// Column major, as Matrix4f.store() writes it
+	v[0] = value.m00; v[1] = value.m01; v[2] = value.m02; v[3] = value.m03;
+	v[4] = value.m10; v[5] = value.m11; v[6] = value.m12; v[7] = value.m13;
+	v[8] = value.m20; v[9] = value.m21; v[10] = value.m22; v[11] = value.m23;
+	v[12] = value.m30; v[13] = value.m31; v[14] = value.m32; v[15] = value.m33;
+	size = 16;
+	
+	SCRATCH.clear();
+	SCRATCH.put(v).flip();
+	GL20.glUniformMatrix4fv(location, false, SCRATCH);
+    }
+    
+    /**
+     * Returns the name of the uniform in the shader source
+     * @return
+     */
+    public String getName() {
+	return name;
+    }
+    
+    /**
+     * Returns the location of the uniform in the program
+     * @return
+     */
+    public int getLocation() {
+	return location;
+    }
+    
+}
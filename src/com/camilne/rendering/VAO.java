@@ -1,5 +1,6 @@
 package com.camilne.rendering;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
 
@@ -7,6 +8,7 @@ import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL33;
 
 import com.camilne.util.Util;
 
@@ -15,9 +17,14 @@ public class VAO {
     protected int vaoid;
     protected int vertexCount;
     
-    private int attributes;
+    // The layout of the vertex data.
+    private VertexFormat format;
     private ArrayList<Integer> bufferObjects;
     
+    // The layout of the per instance attributes and the VBO holding them. The format is null if the VAO is not instanced.
+    private VertexFormat instanceFormat;
+    private int instanceBuffer;
+    
     /**
      * Creates a VertexArrayObject with the specified data
      * @param data The array of all the object data
@@ -33,48 +40,78 @@ public class VAO {
      * @param attributes The different attributes of the data. x is size, y is stride
      */
     public VAO(FloatBuffer data, int... dimensions) {
+	this(data, VertexFormat.fromDimensions(dimensions));
+    }
+    
+    /**
+     * Creates a VertexArrayObject with the specified float data
+     * @param data The FloatBuffer of all the object data
+     * @param format The layout of the data
+     */
+    public VAO(FloatBuffer data, VertexFormat format) {
+	this(format);
+	
+	// Put the data in the VAO
+	int vboid = createVertexBuffer();
+	GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, GL15.GL_STATIC_DRAW);
+	setupAttributes(vboid, data.remaining() * 4);
+    }
+    
+    /**
+     * Creates a VertexArrayObject with the specified packed data
+     * @param data The ByteBuffer of all the object data
+     * @param format The layout of the data
+     */
+    public VAO(ByteBuffer data, VertexFormat format) {
+	this(format);
+	
+	// Put the data in the VAO
+	int vboid = createVertexBuffer();
+	GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, GL15.GL_STATIC_DRAW);
+	setupAttributes(vboid, data.remaining());
+    }
+    
+    /**
+     * Creates an empty VAO with the specified layout
+     * @param format
+     */
+    private VAO(VertexFormat format) {
 	bufferObjects = new ArrayList<Integer>();
 	
 	// Create the VAO
-	vaoid = GL30.glGenVertexArrays();
+	vaoid = GLResources.track(GLResources.Type.VERTEX_ARRAY, GL30.glGenVertexArrays(), 0, "VAO");
 	
-	// Set the number of attributes to enable
-	attributes = dimensions.length;
-	
-	// Put the data in the VAO
-	store(data, dimensions);
+	this.format = format;
     }
     
     /**
-     * Stores the specified data into the VAO with a VBO
-     * @param data
-     * @param dimensions
+     * Binds this VAO and a new VBO to hold the vertex data
+     * @return The id of the VBO
      */
-    private void store(FloatBuffer data, int[] dimensions) {
+    private int createVertexBuffer() {
 	bind();
 	
 	// Generate a VBO to hold the data
-	int vboid = GL15.glGenBuffers();
+	int vboid = GLResources.track(GLResources.Type.BUFFER, GL15.glGenBuffers(), 0, "VAO vertices");
 	// Bind the VBO
 	GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboid);
-	// Store the data in the VBO
-	GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, GL15.GL_STATIC_DRAW);
 	
-	// Get the stride of the data in bytes
-	int stride = 0;
-	if(dimensions.length > 1)
-	    for(int i = 0; i < dimensions.length; i++) {
-		stride += dimensions[i] * 4;
-	    }
-	
-	// Determine the number of vertices assuming attribute 0 is position
-	vertexCount = data.capacity() / dimensions[0];
+	return vboid;
+    }
+    
+    /**
+     * Points the attributes of the format at the data in the bound VBO
+     * @param vboid The id of the VBO
+     * @param byteSize The size of the data in bytes
+     */
+    private void setupAttributes(int vboid, int byteSize) {
+	vertexCount = byteSize / format.getStride();
+	GLResources.setByteSize(GLResources.Type.BUFFER, vboid, byteSize);
 	
-	// Setup data in VBO
-	int offset = 0;
-	for(int i = 0; i < dimensions.length; i++) {
-	    GL20.glVertexAttribPointer(i, dimensions[i], GL11.GL_FLOAT, false, stride, offset);
-	    offset += dimensions[i] * 4;
+	// Setup data in VBO. The attributes stay enabled, as they are part of the state of this VAO
+	for(int i = 0; i < format.getAttributeCount(); i++) {
+	    GL20.glVertexAttribPointer(format.getLocation(i), format.getSize(i), format.getType(i), format.isNormalized(i), format.getStride(), format.getOffset(i));
+	    GL20.glEnableVertexAttribArray(format.getLocation(i));
 	}
 	
 	// Add the vbo to the list of buffer objects for memory management
@@ -83,36 +120,62 @@ public class VAO {
 	unbind();
     }
     
+    /**
+     * Adds a buffer of per instance attributes, which advance once per instance instead of once per vertex.
+     * The attribute locations must differ from those of the vertex format
+     * @param format The layout of the attributes of one instance
+     * @param maxInstances The most instances that are updated at once
+     */
+    public void setInstanceFormat(VertexFormat format, int maxInstances) {
+	instanceFormat = format;
+	
+	bind();
+	instanceBuffer = GLResources.track(GLResources.Type.BUFFER, GL15.glGenBuffers(), (long) maxInstances * format.getStride(), "VAO instances");
+	GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, instanceBuffer);
+	GL15.glBufferData(GL15.GL_ARRAY_BUFFER, maxInstances * format.getStride(), GL15.GL_DYNAMIC_DRAW);
+	
+	for(int i = 0; i < format.getAttributeCount(); i++) {
+	    GL20.glVertexAttribPointer(format.getLocation(i), format.getSize(i), format.getType(i), format.isNormalized(i), format.getStride(), format.getOffset(i));
+	    GL33.glVertexAttribDivisor(format.getLocation(i), 1);
+	    GL20.glEnableVertexAttribArray(format.getLocation(i));
+	}
+	
+	addBufferObject(instanceBuffer);
+	unbind();
+    }
+    
+    /**
+     * Replaces the per instance attributes, starting with the first instance
+     * @param data The attributes laid out as the instance format, ready for get() operations
+     */
+    public void updateInstances(ByteBuffer data) {
+	GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, instanceBuffer);
+	GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, data);
+	GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+    }
+    
     /**
      * Renders this VAO as triangles
      */
     public void render() {
 	bind();
 	
-	// Enable all the attributes
-	enableAttributes();
-	
-	// Render the entire VAO as triangles
+	// Render the entire VAO as triangles. The VAO stays bound, so the next draw of it binds nothing
 	GL11.glDrawArrays(GL11.GL_TRIANGLES, 0, vertexCount);
-
-	// Disable all the attributes
-	disableAttributes();
-	
-	unbind();
     }
     
     /**
      * Binds this VAO
      */
     public void bind() {
-	GL30.glBindVertexArray(vaoid);
+	GLState.bindVertexArray(vaoid);
     }
     
     /**
      * Unbinds this VAO
      */
     public void unbind() {
-	GL30.glBindVertexArray(0);
+	GLState.bindVertexArray(0);
     }
     
     /**
@@ -132,19 +195,11 @@ public class VAO {
     }
     
     /**
-     * Enables all the stored attributes
-     */
-    protected void enableAttributes() {
-	for (int i = 0; i < attributes; i++)
-	    GL20.glEnableVertexAttribArray(i);
-    }
-    
-    /**
-     * Disables all the stored attributes
+     * Returns the layout of the vertex data of this VAO
+     * @return
      */
-    protected void disableAttributes() {
-	for(int i = 0; i < attributes; i++)
-	    GL20.glDisableVertexAttribArray(i);
+    public VertexFormat getFormat() {
+	return format;
     }
     
     /**
@@ -165,13 +220,13 @@ public class VAO {
     }
     
     /**
-     * Cleans up the VRAM of this VAO
+     * Releases this VAO and the buffers it owns from VRAM. The deletion happens at the end of the frame, see GLResources
      */
-    @Override
-    public void finalize() {
-	GL30.glDeleteVertexArrays(vaoid);
+    public void dispose() {
+	GLResources.release(GLResources.Type.VERTEX_ARRAY, vaoid);
 	for(int vbo : bufferObjects)
-	    GL15.glDeleteBuffers(vbo);
+	    GLResources.release(GLResources.Type.BUFFER, vbo);
+	bufferObjects.clear();
     }
 
 }
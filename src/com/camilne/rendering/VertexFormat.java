@@ -0,0 +1,184 @@
+package com.camilne.rendering;
+
+import java.util.Arrays;
+
+import org.lwjgl.opengl.GL11;
+
+/**
+ * Describes how the attributes of a vertex are laid out in a vertex buffer.
+ * Attributes are added in the order they appear in the buffer, e.g.
+ * <pre>
+ * new VertexFormat().add(0, 3, GL11.GL_SHORT, false).pad(2).add(2, 2, GL11.GL_BYTE, true).pad(2);
+ * </pre>
+ */
+public class VertexFormat {
+    
+    // The layout of Vertex: position, texture coordinates, normal and color as floats.
+    public static final VertexFormat STANDARD = fromDimensions(Vertex.DIMENSIONS);
+    // Only a position and texture coordinates as floats, for meshes that are not lit.
+    public static final VertexFormat POSITION_TEXTURE = fromDimensions(3, 2);
+    
+    // The shader location, component count, OpenGL type, normalization and byte offset of each attribute.
+    private int[] locations;
+    private int[] sizes;
+    private int[] types;
+    private boolean[] normalized;
+    private int[] offsets;
+    private int count;
+    
+    // The size of one vertex in bytes.
+    private int stride;
+    
+    /**
+     * Creates an empty vertex format
+     */
+    public VertexFormat() {
+	locations = new int[4];
+	sizes = new int[4];
+	types = new int[4];
+	normalized = new boolean[4];
+	offsets = new int[4];
+    }
+    
+    /**
+     * Creates a format of tightly packed float attributes at locations 0, 1, 2...
+     * @param dimensions The number of components of each attribute
+     * @return
+     */
+    public static VertexFormat fromDimensions(int... dimensions) {
+	VertexFormat format = new VertexFormat();
+	for(int i = 0; i < dimensions.length; i++) {
+	    format.add(i, dimensions[i], GL11.GL_FLOAT, false);
+	}
+	
+	return format;
+    }
+    
+    /**
+     * Adds an attribute directly after the previous one
+     * @param location The location of the attribute in the shader
+     * @param size The number of components, from 1 to 4
+     * @param type The OpenGL type of the components, e.g. GL_FLOAT or GL_SHORT
+     * @param normalized Whether integer components are mapped to [-1, 1] or [0, 1] instead of converted directly
+     * @return This format
+     */
+    public VertexFormat add(int location, int size, int type, boolean normalized) {
+	if(size < 1 || size > 4) {
+	    throw new IllegalArgumentException("Attribute size must be between 1 and 4: " + size);
+	}
+	
+	if(count == locations.length) {
+	    locations = Arrays.copyOf(locations, count * 2);
+	    sizes = Arrays.copyOf(sizes, count * 2);
+	    types = Arrays.copyOf(types, count * 2);
+	    this.normalized = Arrays.copyOf(this.normalized, count * 2);
+	    offsets = Arrays.copyOf(offsets, count * 2);
+	}
+	
+	locations[count] = location;
+	sizes[count] = size;
+	types[count] = type;
+	this.normalized[count] = normalized;
+	offsets[count] = stride;
+	count++;
+	
+	stride += size * getTypeSize(type);
+	
+	return this;
+    }
+    
+    /**
+     * Skips the specified number of bytes, e.g. to keep the next attribute aligned to 4 bytes
+     * @param bytes
+     * @return This format
+     */
+    public VertexFormat pad(int bytes) {
+	stride += bytes;
+	
+	return this;
+    }
+    
+    /**
+     * Returns the number of attributes
+     * @return
+     */
+    public int getAttributeCount() {
+	return count;
+    }
+    
+    /**
+     * Returns the shader location of the specified attribute
+     * @param attribute
+     * @return
+     */
+    public int getLocation(int attribute) {
+	return locations[attribute];
+    }
+    
+    /**
+     * Returns the number of components of the specified attribute
+     * @param attribute
+     * @return
+     */
+    public int getSize(int attribute) {
+	return sizes[attribute];
+    }
+    
+    /**
+     * Returns the OpenGL type of the specified attribute
+     * @param attribute
+     * @return
+     */
+    public int getType(int attribute) {
+	return types[attribute];
+    }
+    
+    /**
+     * Returns whether the specified attribute is normalized
+     * @param attribute
+     * @return
+     */
+    public boolean isNormalized(int attribute) {
+	return normalized[attribute];
+    }
+    
+    /**
+     * Returns the offset of the specified attribute from the start of the vertex in bytes
+     * @param attribute
+     * @return
+     */
+    public int getOffset(int attribute) {
+	return offsets[attribute];
+    }
+    
+    /**
+     * Returns the size of one vertex in bytes
+     * @return
+     */
+    public int getStride() {
+	return stride;
+    }
+    
+    /**
+     * Returns the size in bytes of one component of the specified OpenGL type
+     * @param type
+     * @return
+     */
+    public static int getTypeSize(int type) {
+	switch(type) {
+	case GL11.GL_BYTE:
+	case GL11.GL_UNSIGNED_BYTE:
+	    return 1;
+	case GL11.GL_SHORT:
+	case GL11.GL_UNSIGNED_SHORT:
+	    return 2;
+	case GL11.GL_INT:
+	case GL11.GL_UNSIGNED_INT:
+	case GL11.GL_FLOAT:
+	    return 4;
+	default:
+	    throw new IllegalArgumentException("Unsupported vertex attribute type: " + type);
+	}
+    }
+    
+}
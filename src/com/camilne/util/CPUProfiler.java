@@ -0,0 +1,271 @@
+package com.camilne.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records when scopes of code begin and end on every thread, and writes a window of the recording as Chrome trace
+ * event JSON, which chrome://tracing and Perfetto open. Every thread writes into a ring of its own without locks, so
+ * the oldest events are overwritten when a thread records more than RING_CAPACITY of them. Scopes are registered once
+ * and recorded by their id, so recording allocates nothing, and a disabled profiler only reads one flag.
+ * <pre>
+ * private static final int SCOPE = CPUProfiler.register("World.update");
+ * ...
+ * CPUProfiler.begin(SCOPE);
+ * ...
+ * CPUProfiler.end(SCOPE);
+ * </pre>
+ */
+public class CPUProfiler {
+    
+    // The number of events each thread keeps, a power of two.
+    private static final int RING_CAPACITY = 1 << 16;
+    
+    private static volatile boolean enabled;
+    
+    private static String[] names = new String[0];
+    private static int scopeCount;
+    
+    // The ring of every thread that recorded an event. Replaced as a whole when a thread is added.
+    private static volatile Ring[] rings = new Ring[0];
+    private static final ThreadLocal<Ring> threadRing = new ThreadLocal<Ring>() {
+	@Override
+	protected Ring initialValue() {
+	    return addRing(Thread.currentThread());
+	}
+    };
+    
+    // The time that the timestamps of the trace are relative to.
+    private static final long START_TIME = System.nanoTime();
+    
+    /**
+     * The events of one thread. Only that thread writes them, and it publishes every event by advancing the count
+     */
+    private static class Ring {
+	
+	private final String threadName;
+	private final long threadId;
+	private final long[] times = new long[RING_CAPACITY];
+	// The scope shifted left by one, plus one for the end of the scope.
+	private final int[] marks = new int[RING_CAPACITY];
+	// The number of events ever recorded.
+	private final AtomicLong count = new AtomicLong();
+	
+	private Ring(Thread thread) {
+	    threadName = thread.getName();
+	    threadId = thread.getId();
+	}
+	
+	private void record(int mark) {
+	    final long index = count.get();
+	    final int slot = (int) index & (RING_CAPACITY - 1);
+	    times[slot] = System.nanoTime();
+	    marks[slot] = mark;
+	    count.lazySet(index + 1);
+	}
+    
+    }
+    
+    /**
+     * Registers a scope to record. Registering a name again returns the same scope
+     * @param name The name of the scope in the trace
+     * @return The id of the scope, for begin() and end()
+     */
+    public static synchronized int register(String name) {
+	for(int i = 0; i < scopeCount; i++) {
+	    if(names[i].equals(name)) {
+		return i;
+	    }
+	}
+	
+	final String[] grown = Arrays.copyOf(names, scopeCount + 1);
+	grown[scopeCount] = name;
+	names = grown;
+	
+	return scopeCount++;
+    }
+    
+    /**
+     * Records the start of a scope on the current thread. Does nothing if the profiler is disabled
+     * @param scope
+     */
+    public static void begin(int scope) {
+	if(enabled) {
+	    threadRing.get().record(scope << 1);
+	}
+    }
+    
+    /**
+     * Records the end of a scope on the current thread. Does nothing if the profiler is disabled
+     * @param scope
+     */
+    public static void end(int scope) {
+	if(enabled) {
+	    threadRing.get().record((scope << 1) | 1);
+	}
+    }
+    
+    /**
+     * Returns whether events are recorded
+     * @return
+     */
+    public static boolean isEnabled() {
+	return enabled;
+    }
+    
+    /**
+     * Sets whether events are recorded. Scopes that are open when it changes are left out of the trace
+     * @param enabled
+     */
+    public static void setEnabled(boolean enabled) {
+	CPUProfiler.enabled = enabled;
+    }
+    
+    /**
+     * Returns the current time in the clock of the recorded events, to mark the start or end of a window
+     * @return
+     */
+    public static long now() {
+	return System.nanoTime();
+    }
+    
+    /**
+     * Writes the scopes that began and ended within a window of time to a file, see write()
+     * @param file
+     * @param from The start of the window, see now()
+     * @param to The end of the window
+     * @throws IOException
+     */
+    public static void write(File file, long from, long to) throws IOException {
+	try(Writer writer = new BufferedWriter(new FileWriter(file))) {
+	    write(writer, from, to);
+	}
+    }
+    
+    /**
+     * Writes the scopes that began and ended within a window of time as Chrome trace event JSON.
+     * Events that were overwritten in the ring of their thread are missing, and so are scopes that lost their start.
+     * May be called on any thread, while the others keep recording
+     * @param writer
+     * @param from The start of the window, see now()
+     * @param to The end of the window
+     * @throws IOException
+     */
+    public static void write(Writer writer, long from, long to) throws IOException {
+	final String[] scopeNames;
+	synchronized(CPUProfiler.class) {
+	    scopeNames = names;
+	}
+	
+	writer.write("{\"traceEvents\":[");
+	boolean first = true;
+	for(Ring thread : rings) {
+	    first = writeThread(writer, thread, scopeNames, from, to, first);
+	}
+	writer.write("\n]}\n");
+    }
+    
+    /**
+     * Writes the name of a thread and its scopes within the window as complete events
+     * @param writer
+     * @param thread
+     * @param scopeNames
+     * @param from
+     * @param to
+     * @param first Whether nothing was written before, so no separator is needed
+     * @return Whether nothing was written yet
+     * @throws IOException
+     */
+    private static boolean writeThread(Writer writer, Ring thread, String[] scopeNames, long from, long to, boolean first) throws IOException {
+	// Copy the events first, then drop those the thread may have overwritten while they were copied
+	final long end = thread.count.get();
+	final long start = Math.max(end - RING_CAPACITY, 0);
+	final int length = (int) (end - start);
+	final long[] times = new long[length];
+	final int[] marks = new int[length];
+	for(int i = 0; i < length; i++) {
+	    final int slot = (int) (start + i) & (RING_CAPACITY - 1);
+	    times[i] = thread.times[slot];
+	    marks[i] = thread.marks[slot];
+	}
+	// The thread may be writing the event after the last it published, into the slot of the oldest
+	final int overwritten = (int) Math.min(Math.max(thread.count.get() - RING_CAPACITY + 1 - start, 0), length);
+	
+	if(!first) {
+	    writer.write(',');
+	}
+	writer.write("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + thread.threadId
+		+ ",\"args\":{\"name\":\"" + escape(thread.threadName) + "\"}}");
+	
+	// Match every end with the begin of its scope. Unmatched events are cut off by the window or the ring
+	final int[] openScopes = new int[length];
+	final long[] openTimes = new long[length];
+	int depth = 0;
+	for(int i = overwritten; i < length; i++) {
+	    final int scope = marks[i] >> 1;
+	    if((marks[i] & 1) == 0) {
+		openScopes[depth] = scope;
+		openTimes[depth] = times[i];
+		depth++;
+		continue;
+	    }
+	    
+	    // Pop back to the begin of this scope, dropping scopes whose end is missing
+	    int match = depth - 1;
+	    while(match >= 0 && openScopes[match] != scope) {
+		match--;
+	    }
+	    if(match < 0) {
+		continue;
+	    }
+	    depth = match;
+	    
+	    final long begin = openTimes[match];
+	    if(begin >= from && times[i] <= to) {
+		writer.write(",\n{\"name\":\"" + escape(scope < scopeNames.length ? scopeNames[scope] : "scope " + scope)
+			+ "\",\"ph\":\"X\",\"pid\":1,\"tid\":" + thread.threadId
+			+ ",\"ts\":" + toMicroseconds(begin) + ",\"dur\":" + (times[i] - begin) / 1000.0 + "}");
+	    }
+	}
+	
+	return false;
+    }
+    
+    /**
+     * Adds a ring for the specified thread to the rings that are written
+     * @param thread
+     * @return
+     */
+    private static synchronized Ring addRing(Thread thread) {
+	final Ring added = new Ring(thread);
+	final Ring[] grown = Arrays.copyOf(rings, rings.length + 1);
+	grown[rings.length] = added;
+	rings = grown;
+	
+	return added;
+    }
+    
+    /**
+     * Converts a time of System.nanoTime() to microseconds since the profiler was loaded
+     * @param time
+     * @return
+     */
+    private static double toMicroseconds(long time) {
+	return (time - START_TIME) / 1000.0;
+    }
+    
+    /**
+     * Escapes the quotes and backslashes of a JSON string
+     * @param text
+     * @return
+     */
+    private static String escape(String text) {
+	return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+    
+}
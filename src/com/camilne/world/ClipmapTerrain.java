@@ -0,0 +1,376 @@
+package com.camilne.world;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+
+import com.camilne.noise.SimplexNoise;
+import com.camilne.rendering.FloatTextureArray;
+import com.camilne.rendering.GLState;
+import com.camilne.rendering.Mesh;
+import com.camilne.rendering.MeshBuilder;
+import com.camilne.rendering.Shader;
+import com.camilne.rendering.Texture;
+import com.camilne.rendering.VertexFormat;
+
+/**
+ * Renders the terrain as a geometry clipmap: nested square levels centred on the camera, each with twice the vertex
+ * spacing of the one inside it. The meshes are flat grids shared by every level and drawn instanced, and main.vs reads
+ * the heights from one layer per level of a heightmap texture array.
+ * <p>
+ * Every level is WIDTH cells wide. Level 0 is a full grid; the other levels are a ring of RING cells around the level
+ * inside them, plus an L-shaped trim of one cell on the side the inner level does not cover. The heightmaps are updated
+ * toroidally: a sample at grid coordinate g is kept at texel g mod TEXTURE_SIZE, so moving the camera only writes the
+ * rows and columns that entered the window.
+ */
+public class ClipmapTerrain {
+    
+    // The number of levels. The outermost level has a spacing of 2^(LEVELS-1) units.
+    public static final int LEVELS = 6;
+    // The thickness of the ring of every level in cells.
+    private static final int RING = 14;
+    // The width of every level in cells. The inner level covers RING*2+1 cells of the level around it.
+    private static final int WIDTH = 4 * RING + 2;
+    // The side of each heightmap layer. Holds a level and one more sample on each side for the normals.
+    private static final int TEXTURE_SIZE = 64;
+    
+    // The texture unit of the heightmaps. The terrain texture uses unit 0.
+    public static final int HEIGHTMAP_UNIT = 1;
+    
+    // The layout of the grid vertices: the cell coordinates and which outer edge of a level the vertex is on, if any.
+    private static final VertexFormat FORMAT = new VertexFormat().add(0, 3, GL11.GL_SHORT, false).pad(2);
+    // The layout of one instance: the grid coordinates of the origin, the spacing, and the heightmap layer.
+    private static final VertexFormat INSTANCE_FORMAT = new VertexFormat().add(3, 4, GL11.GL_FLOAT, false);
+    
+    // The edge flags of the vertices, see main.vs.
+    private static final int EDGE_ALONG_X = 1;
+    private static final int EDGE_ALONG_Z = 2;
+    
+    private SimplexNoise noise;
+    private FloatTextureArray heightMaps;
+    // The terrain texture, the same as the regions use.
+    private Texture texture;
+    
+    private Mesh grid;
+    private Mesh ring;
+    private Mesh trimColumn;
+    private Mesh trimRow;
+    // Reused to write the instances of one mesh.
+    private ByteBuffer instances;
+    
+    // The grid coordinates of the origin of every level for the current frame.
+    private int[] originX;
+    private int[] originZ;
+    // The grid coordinates of the first sample of the window that every heightmap layer holds.
+    private int[] windowX;
+    private int[] windowZ;
+    private boolean[] filled;
+    
+    // Reused to sample and upload the heights.
+    private float[] samples;
+    private FloatBuffer texels;
+    
+    /**
+     * Creates the meshes and heightmaps. Must be called on the OpenGL thread.
+     * @param noise The noise the regions are generated with, so that both modes show the same terrain
+     */
+    public ClipmapTerrain(SimplexNoise noise) {
+	this.noise = noise;
+	heightMaps = new FloatTextureArray(TEXTURE_SIZE, TEXTURE_SIZE, LEVELS);
+	texture = new Texture("grass.png");
+	
+	grid = createGrid(0, 0, WIDTH, WIDTH, true);
+	ring = createRing();
+	trimColumn = createGrid(0, 0, 1, 2 * RING + 2, false);
+	trimRow = createGrid(0, 0, 2 * RING + 2, 1, false);
+	grid.getVAO().setInstanceFormat(INSTANCE_FORMAT, 1);
+	ring.getVAO().setInstanceFormat(INSTANCE_FORMAT, LEVELS);
+	trimColumn.getVAO().setInstanceFormat(INSTANCE_FORMAT, LEVELS);
+	trimRow.getVAO().setInstanceFormat(INSTANCE_FORMAT, LEVELS);
+	instances = BufferUtils.createByteBuffer(LEVELS * INSTANCE_FORMAT.getStride());
+	
+	originX = new int[LEVELS];
+	originZ = new int[LEVELS];
+	windowX = new int[LEVELS];
+	windowZ = new int[LEVELS];
+	filled = new boolean[LEVELS];
+	
+	samples = new float[TEXTURE_SIZE * TEXTURE_SIZE];
+	texels = BufferUtils.createFloatBuffer(TEXTURE_SIZE * TEXTURE_SIZE);
+    }
+    
+    /**
+     * Centres the levels on the specified position and writes the heights that entered the levels. Must be called on the OpenGL thread.
+     * @param x
+     * @param z
+     */
+    public void update(float x, float z) {
+	final int cellX = (int) Math.floor(x);
+	final int cellZ = (int) Math.floor(z);
+	
+	heightMaps.bind(GL13.GL_TEXTURE0 + HEIGHTMAP_UNIT);
+	for(int level = 0; level < LEVELS; level++) {
+	    final int spacing = 1 << level;
+	    // Snapped to every other sample so that the level lines up with the vertices of the level around it
+	    originX[level] = Math.floorDiv(cellX, 2 * spacing) * 2 - 2 * RING;
+	    originZ[level] = Math.floorDiv(cellZ, 2 * spacing) * 2 - 2 * RING;
+	    
+	    updateHeightMap(level, originX[level] - 1, originZ[level] - 1);
+	}
+	GLState.activeTexture(0);
+    }
+    
+    /**
+     * Renders every level. The shader must be updated with the camera, and its s_heightmap set to HEIGHTMAP_UNIT
+     * @param shader
+     */
+    public void render(Shader shader) {
+	shader.bind();
+	shader.setUniform("clipmap", 1);
+	shader.setUniform("heightmap_size", TEXTURE_SIZE);
+	heightMaps.bind(GL13.GL_TEXTURE0 + HEIGHTMAP_UNIT);
+	texture.bind();
+	
+	// The innermost level is the only full grid
+	instances.clear();
+	putInstance(0, 0, 0);
+	drawInstances(grid);
+	
+	instances.clear();
+	for(int level = 1; level < LEVELS; level++) {
+	    putInstance(level, 0, 0);
+	}
+	drawInstances(ring);
+	
+	// The trim fills the cell column and row next to the inner level that it does not cover
+	instances.clear();
+	for(int level = 1; level < LEVELS; level++) {
+	    putInstance(level, trimOffset(originX, level), RING);
+	}
+	drawInstances(trimColumn);
+	
+	instances.clear();
+	for(int level = 1; level < LEVELS; level++) {
+	    putInstance(level, RING, trimOffset(originZ, level));
+	}
+	drawInstances(trimRow);
+	
+	shader.setUniform("clipmap", 0);
+    }
+    
+    /**
+     * Frees the heightmaps and the texture on the graphics card
+     */
+    public void dispose() {
+	heightMaps.dispose();
+	texture.dispose();
+	grid.dispose();
+	ring.dispose();
+	trimColumn.dispose();
+	trimRow.dispose();
+    }
+    
+    /**
+     * Returns the cell of the specified level that holds its trim along one axis
+     * @param origins The origins of the levels along the axis
+     * @param level A level other than 0
+     * @return
+     */
+    private static int trimOffset(int[] origins, int level) {
+	// The inner level starts RING or RING + 1 cells into this level
+	final int inner = origins[level - 1] / 2 - origins[level];
+	
+	return inner == RING ? 3 * RING + 1 : RING;
+    }
+    
+    /**
+     * Adds an instance of the specified level, offset by the specified number of cells
+     * @param level
+     * @param cellX
+     * @param cellZ
+     */
+    private void putInstance(int level, int cellX, int cellZ) {
+	instances.putFloat(originX[level] + cellX).putFloat(originZ[level] + cellZ);
+	instances.putFloat(1 << level).putFloat(level);
+    }
+    
+    /**
+     * Uploads the written instances and draws them with the specified mesh
+     * @param mesh
+     */
+    private void drawInstances(Mesh mesh) {
+	final int count = instances.position() / INSTANCE_FORMAT.getStride();
+	instances.flip();
+	mesh.getVAO().updateInstances(instances);
+	mesh.getVAO().renderInstanced(count);
+    }
+    
+    /**
+     * Moves the window of the heightmap of the specified level, writing the samples of the rows and columns that entered it
+     * @param level
+     * @param x The grid x coordinate of the first sample of the new window
+     * @param z The grid z coordinate of the first sample of the new window
+     */
+    private void updateHeightMap(int level, int x, int z) {
+	final int dx = x - windowX[level];
+	final int dz = z - windowZ[level];
+	if(filled[level] && dx == 0 && dz == 0) {
+	    return;
+	}
+	
+	if(!filled[level] || Math.abs(dx) >= TEXTURE_SIZE || Math.abs(dz) >= TEXTURE_SIZE) {
+	    writeSamples(level, x, z, TEXTURE_SIZE, TEXTURE_SIZE);
+	} else {
+	    // The columns that entered the window, over the whole new window
+	    if(dx > 0) {
+		writeSamples(level, windowX[level] + TEXTURE_SIZE, z, dx, TEXTURE_SIZE);
+	    } else if(dx < 0) {
+		writeSamples(level, x, z, -dx, TEXTURE_SIZE);
+	    }
+	    // The rows that entered the window
+	    if(dz > 0) {
+		writeSamples(level, x, windowZ[level] + TEXTURE_SIZE, TEXTURE_SIZE, dz);
+	    } else if(dz < 0) {
+		writeSamples(level, x, z, TEXTURE_SIZE, -dz);
+	    }
+	}
+	
+	windowX[level] = x;
+	windowZ[level] = z;
+	filled[level] = true;
+    }
+    
+    /**
+     * Samples the heights of a rectangle of grid coordinates of the specified level and writes them to their texels
+     * @param level
+     * @param x The grid x coordinate of the first sample
+     * @param z The grid z coordinate of the first sample
+     * @param width The number of samples along x, at most TEXTURE_SIZE
+     * @param height The number of samples along z, at most TEXTURE_SIZE
+     */
+    private void writeSamples(int level, int x, int z, int width, int height) {
+	// One noise unit is one region, as in RegionGenerator
+	final double step = (double) (1 << level) / Region.SIZE;
+	noise.getScaledNoiseGrid(samples, x * step, z * step, step, step, width, height);
+	
+	// The rectangle wraps around the edges of the texture, so it is uploaded in up to four pieces
+	final int texelX = Math.floorMod(x, TEXTURE_SIZE);
+	final int texelZ = Math.floorMod(z, TEXTURE_SIZE);
+	final int firstWidth = Math.min(width, TEXTURE_SIZE - texelX);
+	final int firstHeight = Math.min(height, TEXTURE_SIZE - texelZ);
+	upload(level, width, 0, 0, texelX, texelZ, firstWidth, firstHeight);
+	upload(level, width, firstWidth, 0, 0, texelZ, width - firstWidth, firstHeight);
+	upload(level, width, 0, firstHeight, texelX, 0, firstWidth, height - firstHeight);
+	upload(level, width, firstWidth, firstHeight, 0, 0, width - firstWidth, height - firstHeight);
+    }
+    
+    /**
+     * Uploads a rectangle of the sampled heights
+     * @param level
+     * @param stride The number of samples per row
+     * @param column The first column of the samples
+     * @param row The first row of the samples
+     * @param texelX The first column of the texels
+     * @param texelZ The first row of the texels
+     * @param width
+     * @param height
+     */
+    private void upload(int level, int stride, int column, int row, int texelX, int texelZ, int width, int height) {
+	if(width == 0 || height == 0) {
+	    return;
+	}
+	
+	texels.clear();
+	for(int j = 0; j < height; j++) {
+	    texels.put(samples, (row + j) * stride + column, width);
+	}
+	texels.flip();
+	heightMaps.update(texelX, texelZ, level, width, height, texels);
+    }
+    
+    /**
+     * Creates a flat grid of the specified size in cells
+     * @param x The cell x coordinate of the first vertex
+     * @param z The cell z coordinate of the first vertex
+     * @param width The number of cells along x
+     * @param height The number of cells along z
+     * @param outerEdges Whether the sides of the grid are the outer edges of a level
+     * @return
+     */
+    private static Mesh createGrid(int x, int z, int width, int height, boolean outerEdges) {
+	MeshBuilder builder = new MeshBuilder(FORMAT, (width + 1) * (height + 1), width * height * 6);
+	addGrid(builder, x, z, width, height, outerEdges ? WIDTH : -1);
+	
+	Mesh mesh = builder.build();
+	builder.free();
+	
+	return mesh;
+    }
+    
+    /**
+     * Creates the ring of a level around the RING*2+2 cells in its centre
+     * @return
+     */
+    private static Mesh createRing() {
+	MeshBuilder builder = new MeshBuilder(FORMAT, (WIDTH + 1) * (WIDTH + 1), WIDTH * WIDTH * 6);
+	final int inner = 2 * RING + 2;
+	// The bands along the low and high z sides span the whole level, the ones along x fill in between
+	addGrid(builder, 0, 0, WIDTH, RING, WIDTH);
+	addGrid(builder, 0, RING + inner, WIDTH, RING, WIDTH);
+	addGrid(builder, 0, RING, RING, inner, WIDTH);
+	addGrid(builder, RING + inner, RING, RING, inner, WIDTH);
+	
+	Mesh mesh = builder.build();
+	builder.free();
+	
+	return mesh;
+    }
+    
+    /**
+     * Adds a flat grid of cells to the specified builder
+     * @param builder
+     * @param x The cell x coordinate of the first vertex
+     * @param z The cell z coordinate of the first vertex
+     * @param width The number of cells along x
+     * @param height The number of cells along z
+     * @param levelWidth The width of the level, to flag the vertices on its outer edges, or -1 for none
+     */
+    private static void addGrid(MeshBuilder builder, int x, int z, int width, int height, int levelWidth) {
+	final int first = builder.getVertexCount();
+	for(int j = 0; j <= height; j++) {
+	    for(int i = 0; i <= width; i++) {
+		final int cellX = x + i;
+		final int cellZ = z + j;
+		
+		// Vertices on the outer edges are flattened onto the edges of the coarser level in main.vs
+		int edge = 0;
+		if(cellZ == 0 || cellZ == levelWidth) {
+		    edge = EDGE_ALONG_X;
+		} else if(cellX == 0 || cellX == levelWidth) {
+		    edge = EDGE_ALONG_Z;
+		}
+		
+		builder.getVertexBuffer().putShort((short) cellX).putShort((short) cellZ).putShort((short) edge).putShort((short) 0);
+		builder.endVertex();
+	    }
+	}
+	
+	for(int j = 0; j < height; j++) {
+	    for(int i = 0; i < width; i++) {
+		// Counter-clockwise seen from above, with z(+) towards the viewer
+		// 0 *-* 1
+		//   |\|
+		// 3 *-* 2
+		final int corner0 = first + i + j * (width + 1);
+		final int corner1 = corner0 + 1;
+		final int corner3 = corner0 + (width + 1);
+		final int corner2 = corner3 + 1;
+		builder.quad(corner0, corner3, corner2, corner1);
+	    }
+	}
+    }
+    
+}
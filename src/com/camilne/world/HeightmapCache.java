@@ -0,0 +1,149 @@
+package com.camilne.world;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the heightmaps of recently generated regions, so that a region that comes back into view is not sampled from noise again.
+ * Bounded by the number of bytes of the heightmaps, evicting the least recently used first.
+ * Safe to use from the generator threads. The cached arrays are shared and must not be modified.
+ */
+public class HeightmapCache {
+    
+    // The heightmaps by packed region coordinates, in access order so the eldest entry is the least recently used.
+    private LinkedHashMap<Long, float[]> heightMaps;
+    
+    // The number of bytes held, and the most that may be held.
+    private long byteSize;
+    private long maxBytes;
+    
+    // The number of lookups that found a heightmap and that did not.
+    private long hits;
+    private long misses;
+    
+    /**
+     * Creates an empty cache
+     * @param maxBytes The most bytes of heightmaps to keep. Zero disables the cache
+     */
+    public HeightmapCache(long maxBytes) {
+	heightMaps = new LinkedHashMap<Long, float[]>(64, 0.75f, true);
+	setMaxBytes(maxBytes);
+    }
+    
+    /**
+     * Returns the heightmap of the specified region and marks it as recently used
+     * @param x The x offset of the region
+     * @param z The z offset of the region
+     * @return The heightmap, or null if it is not cached
+     */
+    public synchronized float[] get(int x, int z) {
+	float[] heightMap = heightMaps.get(RegionMap.key(x, z));
+	if(heightMap == null) {
+	    misses++;
+	} else {
+	    hits++;
+	}
+	
+	return heightMap;
+    }
+    
+    /**
+     * Stores the heightmap of the specified region, evicting the least recently used heightmaps if the cache is full
+     * @param x The x offset of the region
+     * @param z The z offset of the region
+     * @param heightMap The heightmap, which must not be modified afterwards
+     */
+    public synchronized void put(int x, int z, float[] heightMap) {
+	float[] previous = heightMaps.put(RegionMap.key(x, z), heightMap);
+	if(previous != null) {
+	    byteSize -= byteSize(previous);
+	}
+	byteSize += byteSize(heightMap);
+	
+	evict();
+    }
+    
+    /**
+     * Returns the number of lookups that found a heightmap
+     * @return
+     */
+    public synchronized long getHits() {
+	return hits;
+    }
+    
+    /**
+     * Returns the number of lookups that did not find a heightmap
+     * @return
+     */
+    public synchronized long getMisses() {
+	return misses;
+    }
+    
+    /**
+     * Returns the number of cached heightmaps
+     * @return
+     */
+    public synchronized int size() {
+	return heightMaps.size();
+    }
+    
+    /**
+     * Returns the number of bytes of the cached heightmaps
+     * @return
+     */
+    public synchronized long getByteSize() {
+	return byteSize;
+    }
+    
+    /**
+     * Returns the most bytes of heightmaps that are kept
+     * @return
+     */
+    public synchronized long getMaxBytes() {
+	return maxBytes;
+    }
+    
+    /**
+     * Sets the most bytes of heightmaps to keep, evicting heightmaps if the cache is now too large
+     * @param maxBytes
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+	if(maxBytes < 0) {
+	    System.err.println("Heightmap cache size must not be negative");
+	    return;
+	}
+	
+	this.maxBytes = maxBytes;
+	evict();
+    }
+    
+    /**
+     * Removes every heightmap. The counters are kept
+     */
+    public synchronized void clear() {
+	heightMaps.clear();
+	byteSize = 0;
+    }
+    
+    /**
+     * Removes the least recently used heightmaps until the cache fits its bound
+     */
+    private void evict() {
+	Iterator<Map.Entry<Long, float[]>> iterator = heightMaps.entrySet().iterator();
+	while(byteSize > maxBytes && iterator.hasNext()) {
+	    byteSize -= byteSize(iterator.next().getValue());
+	    iterator.remove();
+	}
+    }
+    
+    /**
+     * Returns the number of bytes of the specified heightmap
+     * @param heightMap
+     * @return
+     */
+    private static long byteSize(float[] heightMap) {
+	return heightMap.length * 4L;
+    }
+    
+}
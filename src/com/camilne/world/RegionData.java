@@ -0,0 +1,89 @@
+package com.camilne.world;
+
+import com.camilne.rendering.MeshBuilder;
+
+public class RegionData {
+    
+    // The region coordinates of the data.
+    private int x;
+    private int z;
+    
+    // The finished terrain vertices laid out as TerrainVertex.FORMAT, ready to be uploaded to the graphics card.
+    private MeshBuilder vertices;
+    
+    // The lowest and highest terrain heights of the region.
+    private float minHeight;
+    private float maxHeight;
+    
+    /**
+     * Creates a wrapper to hold the generated terrain of a region
+     * @param x The x offset of the region
+     * @param z The z offset of the region
+     * @param vertices The packed vertex data of the terrain
+     * @param minHeight The lowest terrain height
+     * @param maxHeight The highest terrain height
+     */
+    public RegionData(int x, int z, MeshBuilder vertices, float minHeight, float maxHeight) {
+	this.x = x;
+	this.z = z;
+	this.vertices = vertices;
+	this.minHeight = minHeight;
+	this.maxHeight = maxHeight;
+    }
+    
+    /**
+     * Returns the x offset of the region
+     * @return
+     */
+    public int getX() {
+	return x;
+    }
+    
+    /**
+     * Returns the z offset of the region
+     * @return
+     */
+    public int getZ() {
+	return z;
+    }
+    
+    /**
+     * Returns the lowest terrain height of the region
+     * @return
+     */
+    public float getMinHeight() {
+	return minHeight;
+    }
+    
+    /**
+     * Returns the highest terrain height of the region
+     * @return
+     */
+    public float getMaxHeight() {
+	return maxHeight;
+    }
+    
+    /**
+     * Returns the packed vertex data of the terrain
+     * @return
+     */
+    public MeshBuilder getVertices() {
+	return vertices;
+    }
+    
+    /**
+     * Returns the number of bytes that uploading this region sends to the graphics card
+     * @return
+     */
+    public int getByteSize() {
+	return vertices.getVertexByteSize();
+    }
+    
+    /**
+     * Returns the buffers of the vertex data to the pool. Must be called once the data is uploaded or discarded
+     */
+    public void free() {
+	vertices.free();
+    }
+    
+}
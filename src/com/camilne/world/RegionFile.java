@@ -0,0 +1,265 @@
+package com.camilne.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * One file of a RegionStore, holding the regions of a SIDE x SIDE square. Laid out as:
+ * <pre>
+ * 0   int magic, int version, int byte order (0 big endian, 1 little endian)
+ * 12  SIDE * SIDE entries of int offset, int length, ordered by (z * SIDE + x) of the region within the file
+ * ... the region entries, appended in the order they were written
+ * </pre>
+ * An offset of 0 means the region is not stored. The file grows in doubling steps and is padded with zeros past the
+ * last entry, so the memory mapping of the whole file that entries are read through is only renewed a logarithmic
+ * number of times, and the replaced mappings that wait to be collected add up to less than the file.
+ * Every number is in the byte order of the header.
+ */
+public class RegionFile {
+    
+    // The number of regions along each side of a file.
+    public static final int SIDE = 16;
+    
+    private static final int MAGIC = 0x4f57524e;
+    private static final int VERSION = 1;
+    private static final int TABLE_OFFSET = 12;
+    private static final int HEADER_SIZE = TABLE_OFFSET + SIDE * SIDE * 8;
+    
+    private FileChannel channel;
+    private ByteOrder order;
+    
+    // The offset and length of every entry, mirroring the table in the file.
+    private int[] offsets;
+    private int[] lengths;
+    // The end of the last entry, where the next one is appended.
+    private long end;
+    // The size of the file including its padding, only used by the writer.
+    private long capacity;
+    
+    // The read only mapping of the file, and the number of bytes it covers.
+    private MappedByteBuffer mapping;
+    private long mappedSize;
+    
+    /**
+     * Opens the specified file, creating an empty one if it does not exist
+     * @param path
+     * @throws IOException If the file cannot be opened, or it is not a region file of this version
+     */
+    public RegionFile(File path) throws IOException {
+	channel = new RandomAccessFile(path, "rw").getChannel();
+	offsets = new int[SIDE * SIDE];
+	lengths = new int[SIDE * SIDE];
+	
+	try {
+	    if(channel.size() == 0) {
+		order = ByteOrder.nativeOrder();
+		writeHeader();
+	    } else {
+		readHeader(path);
+	    }
+	} catch(IOException e) {
+	    channel.close();
+	    throw e;
+	}
+	
+	// The table may point past the data if the file was not flushed before a crash. Those regions are generated again
+	capacity = channel.size();
+	for(int i = 0; i < offsets.length; i++) {
+	    if(offsets[i] != 0 && (offsets[i] < HEADER_SIZE || lengths[i] <= 0 || (long) offsets[i] + lengths[i] > capacity)) {
+		System.err.println("Dropping corrupt entry " + i + " of region file " + path);
+		offsets[i] = 0;
+		lengths[i] = 0;
+	    }
+	}
+	
+	// The padding past the last entry is reused
+	end = HEADER_SIZE;
+	for(int i = 0; i < offsets.length; i++) {
+	    if(offsets[i] != 0) {
+		end = Math.max(end, (long) offsets[i] + lengths[i]);
+	    }
+	}
+    }
+    
+    /**
+     * Writes the header and an empty table to a new file
+     * @throws IOException
+     */
+    private void writeHeader() throws IOException {
+	ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(order);
+	header.putInt(MAGIC).putInt(VERSION).putInt(order == ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+	header.clear();
+	write(header, 0);
+    }
+    
+    /**
+     * Reads the header and the table of an existing file
+     * @param path The path of the file, for the error messages
+     * @throws IOException
+     */
+    private void readHeader(File path) throws IOException {
+	ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+	while(header.hasRemaining()) {
+	    if(channel.read(header, header.position()) < 0) {
+		throw new IOException("Truncated region file " + path);
+	    }
+	}
+	header.flip();
+	
+	// The magic number reveals the byte order that the file was written in
+	if(header.getInt(0) != MAGIC) {
+	    header.order(ByteOrder.LITTLE_ENDIAN);
+	    if(header.getInt(0) != MAGIC) {
+		throw new IOException("Not a region file " + path);
+	    }
+	}
+	if(header.getInt(4) != VERSION) {
+	    throw new IOException("Unsupported version " + header.getInt(4) + " of region file " + path);
+	}
+	order = header.order();
+	
+	header.position(TABLE_OFFSET);
+	for(int i = 0; i < offsets.length; i++) {
+	    offsets[i] = header.getInt();
+	    lengths[i] = header.getInt();
+	}
+    }
+    
+    /**
+     * Returns whether the specified region is stored
+     * @param x The x offset of the region within the file
+     * @param z The z offset of the region within the file
+     * @return
+     */
+    public synchronized boolean contains(int x, int z) {
+	return offsets[index(x, z)] != 0;
+    }
+    
+    /**
+     * Returns a view of the mapped entry of the specified region, in the byte order of the file
+     * @param x The x offset of the region within the file
+     * @param z The z offset of the region within the file
+     * @return The entry, or null if the region is not stored
+     * @throws IOException If the file cannot be mapped, or the entry lies past its end
+     */
+    public ByteBuffer read(int x, int z) throws IOException {
+	final MappedByteBuffer view;
+	final int offset;
+	final int length;
+	synchronized(this) {
+	    offset = offsets[index(x, z)];
+	    length = lengths[index(x, z)];
+	    if(offset == 0) {
+		return null;
+	    }
+	    
+	    if(offset + length > mappedSize) {
+		mappedSize = channel.size();
+		mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, mappedSize);
+	    }
+	    if(offset + length > mappedSize) {
+		throw new IOException("Entry " + x + ", " + z + " lies past the end of the region file");
+	    }
+	    view = mapping;
+	}
+	
+	// Earlier mappings stay valid, so the entry can be sliced outside of the lock
+	ByteBuffer entry = view.duplicate();
+	entry.position(offset);
+	entry.limit(offset + length);
+	
+	return entry.slice().order(order);
+    }
+    
+    /**
+     * Appends the entry of the specified region and points the table at it. Called by one writer thread at a time
+     * @param x The x offset of the region within the file
+     * @param z The z offset of the region within the file
+     * @param entry The entry, from its position to its limit
+     * @throws IOException
+     */
+    public void write(int x, int z, ByteBuffer entry) throws IOException {
+	final int index = index(x, z);
+	final int offset = (int) end;
+	final int length = entry.remaining();
+	
+	// The data is written before the table, so a crash in between leaves the previous entry in place
+	write(entry, offset);
+	end += length;
+	if(end > capacity) {
+	    capacity = Math.max(capacity * 2, end);
+	    // Extends the file with zeros up to the capacity
+	    if(capacity > end) {
+		write(ByteBuffer.allocate(1), capacity - 1);
+	    }
+	}
+	
+	ByteBuffer slot = ByteBuffer.allocate(8).order(order);
+	slot.putInt(offset).putInt(length).flip();
+	write(slot, TABLE_OFFSET + index * 8);
+	
+	synchronized(this) {
+	    offsets[index] = offset;
+	    lengths[index] = length;
+	}
+    }
+    
+    /**
+     * Forgets the entry of the specified region, e.g. because it is corrupt, so that it is written again.
+     * The table in the file keeps pointing at the entry until then
+     * @param x The x offset of the region within the file
+     * @param z The z offset of the region within the file
+     */
+    public synchronized void discard(int x, int z) {
+	offsets[index(x, z)] = 0;
+	lengths[index(x, z)] = 0;
+    }
+    
+    /**
+     * Returns the byte order of the numbers in the file
+     * @return
+     */
+    public ByteOrder getOrder() {
+	return order;
+    }
+    
+    /**
+     * Closes the file. The mapped entries that were already read stay valid
+     * @throws IOException
+     */
+    public void close() throws IOException {
+	channel.close();
+    }
+    
+    /**
+     * Writes the specified buffer completely at the specified position of the file
+     * @param buffer
+     * @param position
+     * @throws IOException
+     */
+    private void write(ByteBuffer buffer, long position) throws IOException {
+	while(buffer.hasRemaining()) {
+	    position += channel.write(buffer, position);
+	}
+    }
+    
+    /**
+     * Returns the index of the specified region in the table
+     * @param x
+     * @param z
+     * @return
+     */
+    private static int index(int x, int z) {
+	if(x < 0 || x >= SIDE || z < 0 || z >= SIDE) {
+	    throw new IllegalArgumentException("Region " + x + ", " + z + " is not within a region file");
+	}
+	
+	return z * SIDE + x;
+    }
+    
+}
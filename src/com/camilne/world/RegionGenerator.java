@@ -0,0 +1,315 @@
+package com.camilne.world;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.camilne.noise.SimplexNoise;
+import com.camilne.rendering.MeshBuilder;
+import com.camilne.util.CPUProfiler;
+
+public class RegionGenerator {
+    
+    private static final int SIZE = Region.SIZE;
+    private static final int HEIGHTMAP_SIZE = SIZE + 2;
+    
+    // The noise to create the heights of the regions.
+    private static final double FEATURE_HEIGHT = 1 << 6;
+    private static final double PERSISTENCE = 0.75;
+    private SimplexNoise noise;
+    
+    // The default memory bound of the heightmap cache. About 1800 regions.
+    public static final long DEFAULT_CACHE_BYTES = 8 * 1024 * 1024;
+    
+    // Times the generation of every region on the worker threads.
+    private static final int PROFILE_CREATE_TERRAIN = CPUProfiler.register("RegionGenerator.createTerrain");
+    // The heightmaps of recently generated regions, consulted before sampling the noise.
+    private HeightmapCache cache;
+    // The terrain saved by earlier sessions, or null to always generate.
+    private RegionStore store;
+    
+    // The worker threads that generate the terrain off of the OpenGL thread.
+    private ExecutorService executor;
+    // How long dispose() waits for the region that every worker is generating.
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+    // The regions that have been requested but not yet collected.
+    private RegionMap<Future<RegionData>> pending;
+    // The regions that have finished generating and are waiting to be collected.
+    private ConcurrentLinkedQueue<RegionData> completed;
+    // The packed coordinates of the regions whose generation threw, to be dropped from pending by poll().
+    private ConcurrentLinkedQueue<Long> failed;
+    // The regions whose generation failed. They are not requested again until they are cancelled, so that a region
+    // that always fails is not generated again every frame.
+    private RegionMap<Boolean> abandoned;
+    
+    /**
+     * Creates a generator with one worker for every core that is not running the OpenGL thread
+     */
+    public RegionGenerator() {
+	this(null);
+    }
+    
+    /**
+     * Creates a generator that loads and saves the regions in the specified store, with one worker for every core that is not running the OpenGL thread
+     * @param store The store, or null to always generate
+     */
+    public RegionGenerator(RegionStore store) {
+	this(store, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+    
+    /**
+     * Creates a generator with the specified number of worker threads
+     * @param store The store to load and save the regions in, or null to always generate
+     * @param threads The number of worker threads
+     */
+    public RegionGenerator(RegionStore store, int threads) {
+	this.store = store;
+	// The stored regions must match the ones generated for the rest of the world
+	if(store != null) {
+	    noise = new SimplexNoise(FEATURE_HEIGHT, PERSISTENCE, store.getSeed());
+	} else {
+	    noise = new SimplexNoise(FEATURE_HEIGHT, PERSISTENCE);
+	}
+	cache = new HeightmapCache(DEFAULT_CACHE_BYTES);
+	pending = new RegionMap<Future<RegionData>>();
+	completed = new ConcurrentLinkedQueue<RegionData>();
+	failed = new ConcurrentLinkedQueue<Long>();
+	abandoned = new RegionMap<Boolean>();
+	
+	executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+	    
+	    private int count = 0;
+
+	    @Override
+	    public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "RegionGenerator-" + count++);
+		// Do not keep the application alive once the OpenGL thread exits
+		thread.setDaemon(true);
+		// Leave the OpenGL thread priority when cores are contended
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	    }
+	    
+	});
+    }
+    
+    /**
+     * Queues the specified region to be generated on a worker thread. Does nothing if it is already pending,
+     * or if its generation failed and it was not cancelled since.
+     * @param x The x offset of the region
+     * @param z The z offset of the region
+     */
+    public void request(final int x, final int z) {
+	if(pending.containsKey(x, z) || abandoned.containsKey(x, z)) {
+	    return;
+	}
+	
+	pending.put(x, z, executor.submit(new Callable<RegionData>() {
+
+	    @Override
+	    public RegionData call() throws Exception {
+		CPUProfiler.begin(PROFILE_CREATE_TERRAIN);
+		try {
+		    RegionData data = createTerrain(x, z);
+		    completed.add(data);
+		    return data;
+		} catch(Exception e) {
+		    // The future is never read, so report the failure here. poll() abandons the region
+		    System.err.println("Could not generate region " + x + ", " + z + ": " + e);
+		    e.printStackTrace();
+		    failed.add(RegionMap.key(x, z));
+		    return null;
+		} finally {
+		    CPUProfiler.end(PROFILE_CREATE_TERRAIN);
+		}
+	    }
+	    
+	}));
+    }
+    
+    /**
+     * Returns whether or not the specified region has been requested but not yet collected
+     * @param x The x offset of the region
+     * @param z The z offset of the region
+     * @return
+     */
+    public boolean isPending(final int x, final int z) {
+	return pending.containsKey(x, z);
+    }
+    
+    /**
+     * Cancels the generation of the specified region if it has not been collected yet
+     * @param x The x offset of the region
+     * @param z The z offset of the region
+     */
+    public void cancel(final int x, final int z) {
+	cancel(RegionMap.key(x, z));
+    }
+    
+    /**
+     * Cancels the generation of the specified region if it has not been collected yet.
+     * A region whose generation failed may be requested again afterwards.
+     * @param key The packed coordinates of the region
+     */
+    public void cancel(final long key) {
+	Future<RegionData> future = pending.remove(key);
+	if(future != null) {
+	    future.cancel(false);
+	}
+	abandoned.remove(key);
+    }
+    
+    /**
+     * Returns the next finished region without blocking. Regions cancelled after they finished are skipped, and
+     * regions whose generation failed stop being pending and are abandoned until they are cancelled.
+     * @return The generated region, or null if none are ready
+     */
+    public RegionData poll() {
+	Long key;
+	while((key = failed.poll()) != null) {
+	    if(pending.remove(key) != null) {
+		abandoned.put(key, Boolean.TRUE);
+	    }
+	}
+	
+	RegionData data;
+	while((data = completed.poll()) != null) {
+	    if(pending.remove(data.getX(), data.getZ()) != null) {
+		return data;
+	    }
+	    data.free();
+	}
+	
+	return null;
+    }
+    
+    /**
+     * Returns the regions that have been requested but not yet collected. Must not be modified
+     * @return
+     */
+    public RegionMap<?> getPending() {
+	return pending;
+    }
+    
+    /**
+     * Returns the regions whose generation failed and that are not requested again until cancelled. Must not be modified
+     * @return
+     */
+    public RegionMap<?> getAbandoned() {
+	return abandoned;
+    }
+    
+    /**
+     * Returns the cache of the heightmaps of recently generated regions
+     * @return
+     */
+    public HeightmapCache getHeightmapCache() {
+	return cache;
+    }
+    
+    /**
+     * Returns the noise that the heights of the regions are sampled from
+     * @return
+     */
+    public SimplexNoise getNoise() {
+	return noise;
+    }
+    
+    /**
+     * Generates grid terrain. Neighbouring tiles share their corner vertices, so there are (SIZE+1)^2 vertices.
+     * The indices are the same for every region, see TerrainLOD.createIndices().
+     * @param x The x offset of the region
+     * @param z The z offset of the region
+     * @return The finished terrain buffers
+     */
+    private RegionData createTerrain(final int x, final int z) {
+	// The heights of the grid points, stored as heightMap[i + j * HEIGHTMAP_SIZE]. One noise unit is one region.
+	// Regions that were generated recently reuse their heights instead of sampling the noise again.
+	float[] heightMap = cache.get(x, z);
+	boolean generated = false;
+	if(heightMap == null && store != null) {
+	    RegionStore.Entry entry = store.read(x, z);
+	    if(entry != null) {
+		// Stored vertices are copied out of the mapped file as they are
+		if(entry.hasVertices() && entry.getVertexCount() == Region.VERTEX_COUNT) {
+		    MeshBuilder vertices = new MeshBuilder(TerrainVertex.FORMAT, Region.VERTEX_COUNT, 0);
+		    vertices.putVertices(entry.getVertices());
+		    return new RegionData(x, z, vertices, entry.getMinHeight(), entry.getMaxHeight());
+		}
+		
+		heightMap = entry.getHeightMap(new float[HEIGHTMAP_SIZE * HEIGHTMAP_SIZE]);
+	    }
+	}
+	if(heightMap == null) {
+	    heightMap = new float[HEIGHTMAP_SIZE * HEIGHTMAP_SIZE];
+	    noise.getScaledNoiseGrid(heightMap, x, z, 1.0 / SIZE, -1.0 / SIZE, HEIGHTMAP_SIZE, HEIGHTMAP_SIZE);
+	    generated = true;
+	}
+	cache.put(x, z, heightMap);
+	
+	// Holds the packed vertex data for the region. The heightmap has one more row on xpos and zneg for normal calculation.
+	// The indices are shared by every region, so only vertices are written.
+	MeshBuilder vertices = new MeshBuilder(TerrainVertex.FORMAT, Region.VERTEX_COUNT, 0);
+	// The height range of the vertices, for the bounding box of the region.
+	float minHeight = Float.POSITIVE_INFINITY;
+	float maxHeight = Float.NEGATIVE_INFINITY;
+	for(int j = 0; j <= SIZE; j++) {
+	    for(int i = 0; i <= SIZE; i++) {
+		// Creates the grid vertex at (i,j). The texture coordinates are derived from the position in main.vs.
+		// y(+) *-> x(+)
+		//      |
+		// z(+) v
+		final float height = heightMap[i + j * HEIGHTMAP_SIZE];
+		minHeight = Math.min(minHeight, height);
+		maxHeight = Math.max(maxHeight, height);
+		
+		// The normal is the cross product of the displacements to the next vertices along j and i.
+		final float nx = height - heightMap[i + 1 + j * HEIGHTMAP_SIZE];
+		final float nz = height - heightMap[i + (j + 1) * HEIGHTMAP_SIZE];
+		
+		TerrainVertex.put(vertices.getVertexBuffer(), i, height, -j, nx, 1, nz);
+		vertices.endVertex();
+	    }
+	}
+	
+	// Save the new region for later sessions
+	if(store != null && generated) {
+	    store.write(x, z, heightMap, vertices, minHeight, maxHeight);
+	}
+	
+	// Only the finished buffer is handed to the OpenGL thread.
+	return new RegionData(x, z, vertices, minHeight, maxHeight);
+    }
+    
+    /**
+     * Stops the worker threads and waits for them to exit, so that the store can be closed afterwards.
+     * Regions that have not started generating are cancelled, and those that are still generating are discarded.
+     */
+    public void dispose() {
+	// Workers are not interrupted, since that would close the channels of the store they are reading
+	for(int slot = pending.first(); slot != -1; slot = pending.next(slot)) {
+	    pending.valueAt(slot).cancel(false);
+	}
+	executor.shutdown();
+	try {
+	    if(!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+		System.err.println("Region generator did not stop within " + SHUTDOWN_TIMEOUT_SECONDS + " seconds");
+	    }
+	} catch(InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	pending.clear();
+	failed.clear();
+	abandoned.clear();
+	
+	RegionData data;
+	while((data = completed.poll()) != null) {
+	    data.free();
+	}
+    }
+
+}
@@ -0,0 +1,379 @@
+package com.camilne.world;
+
+import java.util.Arrays;
+
+/**
+ * A map from region coordinates to values, keyed by the coordinates packed into a long.
+ * Uses open addressing with linear probing so that lookups and iteration do not allocate.
+ * Iterate with:
+ * <pre>
+ * for(int slot = map.first(); slot != -1; slot = map.next(slot)) {
+ *     map.valueAt(slot);
+ * }
+ * </pre>
+ * The map must not be modified while it is being iterated.
+ * @param <V> The type of the values
+ */
+public class RegionMap<V> {
+    
+    // The largest fraction of the slots that may be used before the table grows.
+    private static final float LOAD_FACTOR = 0.5f;
+    private static final int DEFAULT_CAPACITY = 64;
+    
+    // The packed keys and their values. A null value marks an empty slot.
+    private long[] keys;
+    private Object[] values;
+    
+    // The number of entries and the mask to wrap a slot index to the table.
+    private int size;
+    private int mask;
+    private int resizeThreshold;
+    
+    /**
+     * Creates an empty map with the default capacity
+     */
+    public RegionMap() {
+	this(DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Creates an empty map that can hold the specified number of entries without growing
+     * @param expectedSize
+     */
+    public RegionMap(int expectedSize) {
+	int capacity = 1;
+	while(capacity * LOAD_FACTOR < expectedSize) {
+	    capacity <<= 1;
+	}
+	allocate(Math.max(capacity, 2));
+    }
+    
+    /**
+     * Packs the specified region coordinates into a single key
+     * @param x
+     * @param z
+     * @return
+     */
+    public static long key(int x, int z) {
+	return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+    
+    /**
+     * Returns the x coordinate of the specified packed key
+     * @param key
+     * @return
+     */
+    public static int keyX(long key) {
+	return (int) (key >> 32);
+    }
+    
+    /**
+     * Returns the z coordinate of the specified packed key
+     * @param key
+     * @return
+     */
+    public static int keyZ(long key) {
+	return (int) key;
+    }
+    
+    /**
+     * Returns the value of the specified region
+     * @param x
+     * @param z
+     * @return The value, or null if the region is not in the map
+     */
+    public V get(int x, int z) {
+	return get(key(x, z));
+    }
+    
+    /**
+     * Returns the value of the specified packed key
+     * @param key
+     * @return The value, or null if the key is not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+	final int slot = find(key);
+	return slot == -1 ? null : (V) values[slot];
+    }
+    
+    /**
+     * Returns whether or not the specified region is in the map
+     * @param x
+     * @param z
+     * @return
+     */
+    public boolean containsKey(int x, int z) {
+	return find(key(x, z)) != -1;
+    }
+    
+    /**
+     * Returns whether or not the specified packed key is in the map
+     * @param key
+     * @return
+     */
+    public boolean containsKey(long key) {
+	return find(key) != -1;
+    }
+    
+    /**
+     * Returns the value of the region offset from the specified region
+     * @param x The x coordinate of the region
+     * @param z The z coordinate of the region
+     * @param dx The x offset of the neighbour
+     * @param dz The z offset of the neighbour
+     * @return The value, or null if the neighbour is not in the map
+     */
+    public V getNeighbour(int x, int z, int dx, int dz) {
+	return get(key(x + dx, z + dz));
+    }
+    
+    /**
+     * Stores the values of the four regions sharing an edge with the specified region in the order +x, -x, +z, -z.
+     * Missing neighbours are stored as null.
+     * @param x The x coordinate of the region
+     * @param z The z coordinate of the region
+     * @param dest An array of at least four elements
+     * @return The number of neighbours that are in the map
+     */
+    public int getNeighbours(int x, int z, V[] dest) {
+	dest[0] = get(x + 1, z);
+	dest[1] = get(x - 1, z);
+	dest[2] = get(x, z + 1);
+	dest[3] = get(x, z - 1);
+	
+	int count = 0;
+	for(int i = 0; i < 4; i++) {
+	    if(dest[i] != null) {
+		count++;
+	    }
+	}
+	
+	return count;
+    }
+    
+    /**
+     * Stores the specified value for the specified region, replacing any previous value
+     * @param x
+     * @param z
+     * @param value A non-null value
+     * @return The previous value, or null if there was none
+     */
+    public V put(int x, int z, V value) {
+	return put(key(x, z), value);
+    }
+    
+    /**
+     * Stores the specified value for the specified packed key, replacing any previous value
+     * @param key
+     * @param value A non-null value
+     * @return The previous value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+	if(value == null) {
+	    throw new IllegalArgumentException("RegionMap does not allow null values");
+	}
+	
+	int slot = hash(key) & mask;
+	while(values[slot] != null) {
+	    // Replace the existing value
+	    if(keys[slot] == key) {
+		V previous = (V) values[slot];
+		values[slot] = value;
+		return previous;
+	    }
+	    slot = (slot + 1) & mask;
+	}
+	
+	keys[slot] = key;
+	values[slot] = value;
+	
+	if(++size > resizeThreshold) {
+	    allocate(keys.length << 1);
+	}
+	
+	return null;
+    }
+    
+    /**
+     * Removes the specified region from the map
+     * @param x
+     * @param z
+     * @return The removed value, or null if the region was not in the map
+     */
+    public V remove(int x, int z) {
+	return remove(key(x, z));
+    }
+    
+    /**
+     * Removes the specified packed key from the map
+     * @param key
+     * @return The removed value, or null if the key was not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+	int slot = find(key);
+	if(slot == -1) {
+	    return null;
+	}
+	
+	V previous = (V) values[slot];
+	
+	// Shift the following entries of the probe sequence back so that no tombstones are needed
+	int next = (slot + 1) & mask;
+	while(values[next] != null) {
+	    final int home = hash(keys[next]) & mask;
+	    // Move the entry if its home slot is not between the hole and its current slot
+	    if(((next - home) & mask) >= ((next - slot) & mask)) {
+		keys[slot] = keys[next];
+		values[slot] = values[next];
+		slot = next;
+	    }
+	    next = (next + 1) & mask;
+	}
+	values[slot] = null;
+	size--;
+	
+	return previous;
+    }
+    
+    /**
+     * Removes every entry from the map
+     */
+    public void clear() {
+	Arrays.fill(values, null);
+	size = 0;
+    }
+    
+    /**
+     * Returns the number of entries in the map
+     * @return
+     */
+    public int size() {
+	return size;
+    }
+    
+    /**
+     * Returns whether or not the map has no entries
+     * @return
+     */
+    public boolean isEmpty() {
+	return size == 0;
+    }
+    
+    /**
+     * Returns the first used slot for iteration
+     * @return The slot, or -1 if the map is empty
+     */
+    public int first() {
+	return next(-1);
+    }
+    
+    /**
+     * Returns the used slot after the specified slot
+     * @param slot
+     * @return The slot, or -1 if there are no more entries
+     */
+    public int next(int slot) {
+	for(int i = slot + 1; i < values.length; i++) {
+	    if(values[i] != null) {
+		return i;
+	    }
+	}
+	
+	return -1;
+    }
+    
+    /**
+     * Returns the packed key stored in the specified slot
+     * @param slot
+     * @return
+     */
+    public long keyAt(int slot) {
+	return keys[slot];
+    }
+    
+    /**
+     * Returns the x coordinate stored in the specified slot
+     * @param slot
+     * @return
+     */
+    public int xAt(int slot) {
+	return keyX(keys[slot]);
+    }
+    
+    /**
+     * Returns the z coordinate stored in the specified slot
+     * @param slot
+     * @return
+     */
+    public int zAt(int slot) {
+	return keyZ(keys[slot]);
+    }
+    
+    /**
+     * Returns the value stored in the specified slot
+     * @param slot
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+	return (V) values[slot];
+    }
+    
+    /**
+     * Returns the slot of the specified key
+     * @param key
+     * @return The slot, or -1 if the key is not in the map
+     */
+    private int find(long key) {
+	int slot = hash(key) & mask;
+	while(values[slot] != null) {
+	    if(keys[slot] == key) {
+		return slot;
+	    }
+	    slot = (slot + 1) & mask;
+	}
+	
+	return -1;
+    }
+    
+    /**
+     * Replaces the table with one of the specified capacity and re-inserts every entry
+     * @param capacity A power of two
+     */
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+	long[] oldKeys = keys;
+	Object[] oldValues = values;
+	
+	keys = new long[capacity];
+	values = new Object[capacity];
+	mask = capacity - 1;
+	resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	size = 0;
+	
+	if(oldValues != null) {
+	    for(int i = 0; i < oldValues.length; i++) {
+		if(oldValues[i] != null) {
+		    put(oldKeys[i], (V) oldValues[i]);
+		}
+	    }
+	}
+    }
+    
+    /**
+     * Mixes the bits of the specified key so that neighbouring regions spread across the table
+     * @param key
+     * @return
+     */
+    private static int hash(long key) {
+	key ^= key >>> 33;
+	key *= 0xFF51AFD7ED558CCDL;
+	key ^= key >>> 33;
+	
+	return (int) key;
+    }
+    
+}
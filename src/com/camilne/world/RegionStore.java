@@ -0,0 +1,387 @@
+package com.camilne.world;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.camilne.rendering.MeshBuilder;
+
+/**
+ * Keeps generated terrain on disk so that later sessions load regions instead of generating them.
+ * The regions are grouped into RegionFiles of RegionFile.SIDE x RegionFile.SIDE regions named r.x.z.dat,
+ * next to a seed.dat holding the seed of the noise, which must be used to generate any missing regions.
+ * Every region entry is laid out as:
+ * <pre>
+ * 0   int flags, float min height, float max height, int height count, int vertex count
+ * 20  short heights in 1/TerrainVertex.HEIGHT_STEPS units, then the packed vertices if HAS_VERTICES is set
+ * </pre>
+ * Reads map the files and may be done from any thread. Writes copy the vertices on the calling thread
+ * and are encoded and written by a background thread.
+ */
+public class RegionStore {
+    
+    private static final String SEED_FILE = "seed.dat";
+    
+    // The flags of an entry.
+    private static final int HAS_VERTICES = 1;
+    private static final int ENTRY_HEADER_SIZE = 20;
+    
+    private File directory;
+    private int seed;
+    // Whether the built vertices are stored as well as the heights. Takes about six times the space but skips building on load.
+    private boolean storingVertices;
+    
+    // The open files by packed file coordinates.
+    private RegionMap<RegionFile> files;
+    // Writes the entries in the background, one at a time.
+    private ExecutorService writer;
+    
+    /**
+     * Opens the store in the specified directory, creating it with a random seed if it does not exist
+     * @param directory
+     * @throws IOException If the directory or its seed cannot be read or created
+     */
+    public RegionStore(File directory) throws IOException {
+	this.directory = directory;
+	storingVertices = true;
+	files = new RegionMap<RegionFile>();
+	
+	if(!directory.isDirectory() && !directory.mkdirs()) {
+	    throw new IOException("Could not create region store " + directory);
+	}
+	
+	File seedFile = new File(directory, SEED_FILE);
+	if(seedFile.exists()) {
+	    DataInputStream in = new DataInputStream(new FileInputStream(seedFile));
+	    try {
+		seed = in.readInt();
+	    } finally {
+		in.close();
+	    }
+	} else {
+	    seed = new Random().nextInt();
+	    DataOutputStream out = new DataOutputStream(new FileOutputStream(seedFile));
+	    try {
+		out.writeInt(seed);
+	    } finally {
+		out.close();
+	    }
+	}
+	
+	writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	    
+	    @Override
+	    public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "RegionStore-Writer");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	    }
+	    
+	});
+    }
+    
+    /**
+     * Returns the seed that the terrain of this store is generated with
+     * @return
+     */
+    public int getSeed() {
+	return seed;
+    }
+    
+    /**
+     * Returns whether the built vertices are stored as well as the heights
+     * @return
+     */
+    public boolean isStoringVertices() {
+	return storingVertices;
+    }
+    
+    /**
+     * Sets whether the built vertices are stored as well as the heights. Affects only the regions written afterwards
+     * @param storingVertices
+     */
+    public void setStoringVertices(boolean storingVertices) {
+	this.storingVertices = storingVertices;
+    }
+    
+    /**
+     * Returns the stored entry of the specified region
+     * @param x The x offset of the region
+     * @param z The z offset of the region
+     * @return The entry, or null if the region is not stored or cannot be read
+     */
+    public Entry read(int x, int z) {
+	try {
+	    RegionFile file = getFile(x, z);
+	    if(file == null) {
+		return null;
+	    }
+	    
+	    final int fx = Math.floorMod(x, RegionFile.SIDE);
+	    final int fz = Math.floorMod(z, RegionFile.SIDE);
+	    ByteBuffer data = file.read(fx, fz);
+	    if(data == null) {
+		return null;
+	    }
+	    if(!isValid(data)) {
+		// Generated and written again instead
+		System.err.println("Corrupt entry of region " + x + ", " + z);
+		file.discard(fx, fz);
+		return null;
+	    }
+	    
+	    return new Entry(data);
+	} catch(IOException e) {
+	    System.err.println("Could not read region " + x + ", " + z + ": " + e.getMessage());
+	    return null;
+	}
+    }
+    
+    /**
+     * Stores the specified region in the background. The vertices are copied before returning.
+     * Does nothing if the region is already stored
+     * @param x The x offset of the region
+     * @param z The z offset of the region
+     * @param heightMap The heights of the region
+     * @param vertices The built vertices of the region, laid out as TerrainVertex.FORMAT
+     * @param minHeight The lowest terrain height
+     * @param maxHeight The highest terrain height
+     */
+    public void write(final int x, final int z, final float[] heightMap, MeshBuilder vertices, final float minHeight, final float maxHeight) {
+	// The heightmap is not modified after generation, but the vertex buffers are reused once the region is uploaded
+	final ByteBuffer vertexData;
+	final int vertexCount;
+	if(storingVertices) {
+	    vertexData = ByteBuffer.allocate(vertices.getVertexByteSize()).put(vertices.getVertexData());
+	    vertexData.flip();
+	    vertexCount = vertices.getVertexCount();
+	} else {
+	    vertexData = null;
+	    vertexCount = 0;
+	}
+	
+	writer.execute(new Runnable() {
+	    
+	    @Override
+	    public void run() {
+		try {
+		    RegionFile file = getOrCreateFile(x, z);
+		    final int fx = Math.floorMod(x, RegionFile.SIDE);
+		    final int fz = Math.floorMod(z, RegionFile.SIDE);
+		    // The region may have been generated twice if it was requested again while its first write was queued
+		    if(!file.contains(fx, fz)) {
+			file.write(fx, fz, encode(file.getOrder(), heightMap, vertexData, vertexCount, minHeight, maxHeight));
+		    }
+		} catch(IOException e) {
+		    System.err.println("Could not write region " + x + ", " + z + ": " + e.getMessage());
+		}
+	    }
+	    
+	});
+    }
+    
+    /**
+     * Returns whether the counts in the header of an entry fit in its length
+     * @param data The entry
+     * @return
+     */
+    private static boolean isValid(ByteBuffer data) {
+	if(data.remaining() < ENTRY_HEADER_SIZE) {
+	    return false;
+	}
+	
+	final long heightCount = data.getInt(12);
+	final long vertexCount = (data.getInt(0) & HAS_VERTICES) != 0 ? data.getInt(16) : 0;
+	
+	return heightCount >= 0 && vertexCount >= 0
+		&& ENTRY_HEADER_SIZE + heightCount * 2 + vertexCount * TerrainVertex.SIZE <= data.remaining();
+    }
+    
+    /**
+     * Lays out an entry in the specified byte order
+     * @param order The byte order of the file
+     * @param heightMap
+     * @param vertexData The packed vertices in native order, or null to store only the heights
+     * @param vertexCount
+     * @param minHeight
+     * @param maxHeight
+     * @return The entry, ready to be written
+     */
+    private static ByteBuffer encode(ByteOrder order, float[] heightMap, ByteBuffer vertexData, int vertexCount, float minHeight, float maxHeight) {
+	// The packed vertices can only be used on platforms of the same byte order, so files of the other order keep only the heights
+	final boolean withVertices = vertexData != null && order == ByteOrder.nativeOrder();
+	final int size = ENTRY_HEADER_SIZE + heightMap.length * 2 + (withVertices ? vertexData.remaining() : 0);
+	
+	ByteBuffer entry = ByteBuffer.allocate(size).order(order);
+	entry.putInt(withVertices ? HAS_VERTICES : 0);
+	entry.putFloat(minHeight).putFloat(maxHeight);
+	entry.putInt(heightMap.length).putInt(withVertices ? vertexCount : 0);
+	for(int i = 0; i < heightMap.length; i++) {
+	    entry.putShort(TerrainVertex.quantizeHeight(heightMap[i]));
+	}
+	if(withVertices) {
+	    entry.put(vertexData);
+	}
+	entry.flip();
+	
+	return entry;
+    }
+    
+    /**
+     * Finishes the queued writes and closes every file
+     */
+    public void close() {
+	writer.shutdown();
+	try {
+	    writer.awaitTermination(10, TimeUnit.SECONDS);
+	} catch(InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	
+	synchronized(files) {
+	    for(int slot = files.first(); slot != -1; slot = files.next(slot)) {
+		try {
+		    files.valueAt(slot).close();
+		} catch(IOException e) {
+		    e.printStackTrace();
+		}
+	    }
+	    files.clear();
+	}
+    }
+    
+    /**
+     * Returns the open file of the specified region, opening it if it exists
+     * @param x The x offset of the region
+     * @param z The z offset of the region
+     * @return The file, or null if there is no file for the region
+     * @throws IOException
+     */
+    private RegionFile getFile(int x, int z) throws IOException {
+	synchronized(files) {
+	    RegionFile file = files.get(Math.floorDiv(x, RegionFile.SIDE), Math.floorDiv(z, RegionFile.SIDE));
+	    if(file == null && getPath(x, z).exists()) {
+		file = getOrCreateFile(x, z);
+	    }
+	    
+	    return file;
+	}
+    }
+    
+    /**
+     * Returns the open file of the specified region, creating it if it does not exist
+     * @param x The x offset of the region
+     * @param z The z offset of the region
+     * @return
+     * @throws IOException
+     */
+    private RegionFile getOrCreateFile(int x, int z) throws IOException {
+	synchronized(files) {
+	    final int fileX = Math.floorDiv(x, RegionFile.SIDE);
+	    final int fileZ = Math.floorDiv(z, RegionFile.SIDE);
+	    RegionFile file = files.get(fileX, fileZ);
+	    if(file == null) {
+		file = new RegionFile(getPath(x, z));
+		files.put(fileX, fileZ, file);
+	    }
+	    
+	    return file;
+	}
+    }
+    
+    /**
+     * Returns the path of the file of the specified region
+     * @param x The x offset of the region
+     * @param z The z offset of the region
+     * @return
+     */
+    private File getPath(int x, int z) {
+	return new File(directory, "r." + Math.floorDiv(x, RegionFile.SIDE) + "." + Math.floorDiv(z, RegionFile.SIDE) + ".dat");
+    }
+    
+    /**
+     * A stored region, read straight from the mapped file
+     */
+    public static class Entry {
+	
+	private ByteBuffer data;
+	
+	private Entry(ByteBuffer data) {
+	    this.data = data;
+	}
+	
+	/**
+	 * Returns the lowest terrain height
+	 * @return
+	 */
+	public float getMinHeight() {
+	    return data.getFloat(4);
+	}
+	
+	/**
+	 * Returns the highest terrain height
+	 * @return
+	 */
+	public float getMaxHeight() {
+	    return data.getFloat(8);
+	}
+	
+	/**
+	 * Reads the heights into the specified array
+	 * @param dest
+	 * @return dest, or null if the stored heightmap is of a different size
+	 */
+	public float[] getHeightMap(float[] dest) {
+	    if(data.getInt(12) != dest.length) {
+		return null;
+	    }
+	    
+	    for(int i = 0; i < dest.length; i++) {
+		dest[i] = data.getShort(ENTRY_HEADER_SIZE + i * 2) / TerrainVertex.HEIGHT_STEPS;
+	    }
+	    
+	    return dest;
+	}
+	
+	/**
+	 * Returns whether the entry holds built vertices that can be uploaded as they are
+	 * @return
+	 */
+	public boolean hasVertices() {
+	    return (data.getInt(0) & HAS_VERTICES) != 0;
+	}
+	
+	/**
+	 * Returns the number of built vertices
+	 * @return
+	 */
+	public int getVertexCount() {
+	    return data.getInt(16);
+	}
+	
+	/**
+	 * Returns the built vertices, laid out as TerrainVertex.FORMAT
+	 * @return
+	 */
+	public ByteBuffer getVertices() {
+	    ByteBuffer vertices = data.duplicate();
+	    vertices.position(ENTRY_HEADER_SIZE + data.getInt(12) * 2);
+	    vertices.limit(vertices.position() + data.getInt(16) * TerrainVertex.SIZE);
+	    
+	    return vertices;
+	}
+    
+    }
+    
+}
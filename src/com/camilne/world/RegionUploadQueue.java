@@ -0,0 +1,189 @@
+package com.camilne.world;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+public class RegionUploadQueue {
+    
+    // The generated regions waiting to be uploaded to the graphics card, the closest to the camera last.
+    private ArrayList<RegionData> ready;
+    // The same regions by coordinate for fast lookup.
+    private RegionMap<RegionData> queued;
+    // Orders the ready regions from the farthest to the closest to the camera.
+    private Comparator<RegionData> priority;
+    
+    // The camera position in region coordinates for the current frame.
+    private float cameraX;
+    private float cameraZ;
+    // The region the camera was in when the queue was last sorted, and whether regions were added since.
+    private int sortedX;
+    private int sortedZ;
+    private boolean sorted;
+    
+    // The number of bytes that may be uploaded per frame, and the number uploaded so far this frame.
+    private int budget;
+    private int spent;
+    
+    /**
+     * Creates an empty upload queue with the specified budget
+     * @param budget The number of bytes that may be uploaded per frame
+     */
+    public RegionUploadQueue(int budget) {
+	ready = new ArrayList<RegionData>();
+	queued = new RegionMap<RegionData>();
+	priority = new Comparator<RegionData>() {
+	    
+	    @Override
+	    public int compare(RegionData a, RegionData b) {
+		return Float.compare(squaredDistance(b), squaredDistance(a));
+	    }
+	    
+	};
+	
+	setBudget(budget);
+    }
+    
+    /**
+     * Adds a generated region to the back of the queue
+     * @param data
+     */
+    public void add(RegionData data) {
+	ready.add(data);
+	queued.put(data.getX(), data.getZ(), data);
+	sorted = false;
+    }
+    
+    /**
+     * Returns whether or not the specified region is waiting to be uploaded
+     * @param x
+     * @param z
+     * @return
+     */
+    public boolean contains(int x, int z) {
+	return queued.containsKey(x, z);
+    }
+    
+    /**
+     * Resets the budget for a new frame and orders the queue so that the regions closest to the camera upload first.
+     * The queue is only sorted again when regions were added or the camera moved into another region.
+     * @param cameraX The x position of the camera in region coordinates
+     * @param cameraZ The z position of the camera in region coordinates
+     */
+    public void beginFrame(float cameraX, float cameraZ) {
+	this.cameraX = cameraX;
+	this.cameraZ = cameraZ;
+	spent = 0;
+	
+	final int regionX = (int) Math.floor(cameraX);
+	final int regionZ = (int) Math.floor(cameraZ);
+	if(!sorted || regionX != sortedX || regionZ != sortedZ) {
+	    Collections.sort(ready, priority);
+	    sortedX = regionX;
+	    sortedZ = regionZ;
+	    sorted = true;
+	}
+    }
+    
+    /**
+     * Removes the regions that are farther from the camera than the specified distance and frees their vertex data
+     * @param cameraX The x position of the camera in region coordinates
+     * @param cameraZ The z position of the camera in region coordinates
+     * @param maxSquaredDistance The squared distance in regions beyond which regions are removed
+     */
+    public void removeOutOfRange(float cameraX, float cameraZ, float maxSquaredDistance) {
+	// Compact the list in place, keeping the order of the remaining regions
+	int kept = 0;
+	for(int i = 0; i < ready.size(); i++) {
+	    final RegionData data = ready.get(i);
+	    final float dx = data.getX() - cameraX;
+	    final float dz = data.getZ() - cameraZ;
+	    if(dx * dx + dz * dz > maxSquaredDistance) {
+		queued.remove(data.getX(), data.getZ());
+		data.free();
+	    } else {
+		ready.set(kept++, data);
+	    }
+	}
+	
+	for(int i = ready.size() - 1; i >= kept; i--) {
+	    ready.remove(i);
+	}
+    }
+    
+    /**
+     * Removes the next region from the queue if it fits in the remaining budget of this frame.
+     * The first region of a frame is always returned so that the queue keeps draining when a region is larger than the budget.
+     * @return The next region to upload, or null if the queue is empty or the budget is spent
+     */
+    public RegionData poll() {
+	if(ready.isEmpty()) {
+	    return null;
+	}
+	
+	final int last = ready.size() - 1;
+	final int size = ready.get(last).getByteSize();
+	if(spent > 0 && spent + size > budget) {
+	    return null;
+	}
+	
+	spent += size;
+	RegionData data = ready.remove(last);
+	queued.remove(data.getX(), data.getZ());
+	
+	return data;
+    }
+    
+    /**
+     * Returns the number of regions waiting to be uploaded
+     * @return
+     */
+    public int size() {
+	return ready.size();
+    }
+    
+    /**
+     * Removes every region from the queue and frees their vertex data
+     */
+    public void clear() {
+	for(int i = 0; i < ready.size(); i++) {
+	    ready.get(i).free();
+	}
+	ready.clear();
+	queued.clear();
+    }
+    
+    /**
+     * Returns the number of bytes that may be uploaded per frame
+     * @return
+     */
+    public int getBudget() {
+	return budget;
+    }
+    
+    /**
+     * Sets the number of bytes that may be uploaded per frame. Lower values reduce hitching, higher values reduce pop-in
+     * @param budget
+     */
+    public void setBudget(int budget) {
+	if(budget <= 0) {
+	    System.err.println("Upload budget must be positive");
+	    return;
+	}
+	
+	this.budget = budget;
+    }
+    
+    /**
+     * Returns the squared distance between the camera and the specified region in region coordinates
+     * @param data
+     * @return
+     */
+    private float squaredDistance(RegionData data) {
+	final float dx = data.getX() - cameraX;
+	final float dz = data.getZ() - cameraZ;
+	
+	return dx * dx + dz * dz;
+    }
+    
+}
@@ -2,20 +2,21 @@ package com.camilne.world;
 
 import java.io.IOException;
 
-import org.lwjgl.util.vector.Vector3f;
+import org.lwjgl.util.vector.Vector2f;
 
 import com.camilne.rendering.Mesh;
-import com.camilne.rendering.PerspectiveCamera;
+import com.camilne.rendering.MeshBuilder;
 import com.camilne.rendering.Shader;
 import com.camilne.rendering.Texture;
 import com.camilne.rendering.TextureRegion;
-import com.camilne.rendering.Vertex;
+import com.camilne.rendering.VertexFormat;
 
 public class Skybox {
         
     private TextureRegion[] skyboxTextureRegions;
     private Shader skyboxShader;
     private Mesh skyboxMesh;
+    private Texture skyboxTexture;
     
     /**
      * Creates a skybox centered at the player based on the configuration.
@@ -27,83 +28,84 @@ public class Skybox {
 	//final int TEXTURE_REGION_SIZE = 512;
 	skyboxTextureRegions = new TextureRegion[6];
 	// Loads the texture for each face of the skybox and assigns it to the TextureRegion array based on the configuration.
-	Texture skyboxTexture = new Texture(config.textureName);
+	skyboxTexture = new Texture(config.textureName);
 	for(int i = 0; i < skyboxTextureRegions.length; i++) {
 	    skyboxTextureRegions[i] = createRegion(skyboxTexture, SkyboxFace.values()[i], config);
 	}
 
 	skyboxShader = new Shader(config.shaderName);
 	
-	Vertex[] skyboxMeshVertices = new Vertex[24];
-	int[] skyboxMeshIndices = new int[36];
+	// Write the vertices straight into a direct buffer. Only positions and texture coordinates are used by the shader.
+	MeshBuilder builder = new MeshBuilder(VertexFormat.POSITION_TEXTURE, 24, 36);
 	
 	final int size = config.size;
-	int i = 0;
 	int j = 0;
 	// Front face
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f(-size, -size, -size), skyboxTextureRegions[j  ].getST());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f( size, -size, -size), skyboxTextureRegions[j  ].getUT());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f( size,  size, -size), skyboxTextureRegions[j  ].getUV());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f(-size,  size, -size), skyboxTextureRegions[j++].getSV());
+	addVertex(builder, -size, -size, -size, skyboxTextureRegions[j  ].getST());
+	addVertex(builder,  size, -size, -size, skyboxTextureRegions[j  ].getUT());
+	addVertex(builder,  size,  size, -size, skyboxTextureRegions[j  ].getUV());
+	addVertex(builder, -size,  size, -size, skyboxTextureRegions[j++].getSV());
 
 	// Right face
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f( size, -size, -size), skyboxTextureRegions[j  ].getST());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f( size, -size,  size), skyboxTextureRegions[j  ].getUT());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f( size,  size,  size), skyboxTextureRegions[j  ].getUV());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f( size,  size, -size), skyboxTextureRegions[j++].getSV());
+	addVertex(builder,  size, -size, -size, skyboxTextureRegions[j  ].getST());
+	addVertex(builder,  size, -size,  size, skyboxTextureRegions[j  ].getUT());
+	addVertex(builder,  size,  size,  size, skyboxTextureRegions[j  ].getUV());
+	addVertex(builder,  size,  size, -size, skyboxTextureRegions[j++].getSV());
 	
 	// Back face
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f( size, -size,  size), skyboxTextureRegions[j  ].getST());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f(-size, -size,  size), skyboxTextureRegions[j  ].getUT());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f(-size,  size,  size), skyboxTextureRegions[j  ].getUV());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f( size,  size,  size), skyboxTextureRegions[j++].getSV());
+	addVertex(builder,  size, -size,  size, skyboxTextureRegions[j  ].getST());
+	addVertex(builder, -size, -size,  size, skyboxTextureRegions[j  ].getUT());
+	addVertex(builder, -size,  size,  size, skyboxTextureRegions[j  ].getUV());
+	addVertex(builder,  size,  size,  size, skyboxTextureRegions[j++].getSV());
 	
 	// Left face
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f(-size, -size,  size), skyboxTextureRegions[j  ].getST());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f(-size, -size, -size), skyboxTextureRegions[j  ].getUT());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f(-size,  size, -size), skyboxTextureRegions[j  ].getUV());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f(-size,  size,  size), skyboxTextureRegions[j++].getSV());
+	addVertex(builder, -size, -size,  size, skyboxTextureRegions[j  ].getST());
+	addVertex(builder, -size, -size, -size, skyboxTextureRegions[j  ].getUT());
+	addVertex(builder, -size,  size, -size, skyboxTextureRegions[j  ].getUV());
+	addVertex(builder, -size,  size,  size, skyboxTextureRegions[j++].getSV());
 	
 	// Top face
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f( size,  size, -size), skyboxTextureRegions[j  ].getST());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f( size,  size,  size), skyboxTextureRegions[j  ].getUT());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f(-size,  size,  size), skyboxTextureRegions[j  ].getUV());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f(-size,  size, -size), skyboxTextureRegions[j++].getSV());
+	addVertex(builder,  size,  size, -size, skyboxTextureRegions[j  ].getST());
+	addVertex(builder,  size,  size,  size, skyboxTextureRegions[j  ].getUT());
+	addVertex(builder, -size,  size,  size, skyboxTextureRegions[j  ].getUV());
+	addVertex(builder, -size,  size, -size, skyboxTextureRegions[j++].getSV());
 	
 	// Bottom face
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f(-size, -size, -size), skyboxTextureRegions[j  ].getST()); // culling weird? changed pos order
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f(-size, -size,  size), skyboxTextureRegions[j  ].getUT());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f( size, -size,  size), skyboxTextureRegions[j  ].getUV());
-	skyboxMeshVertices[i++] = new Vertex(new Vector3f( size, -size, -size), skyboxTextureRegions[j++].getSV());
+	addVertex(builder, -size, -size, -size, skyboxTextureRegions[j  ].getST()); // culling weird? changed pos order
+	addVertex(builder, -size, -size,  size, skyboxTextureRegions[j  ].getUT());
+	addVertex(builder,  size, -size,  size, skyboxTextureRegions[j  ].getUV());
+	addVertex(builder,  size, -size, -size, skyboxTextureRegions[j++].getSV());
 	
-	int l = 0;
-	for(int k = 0; k < skyboxMeshIndices.length; k++) {
-	    skyboxMeshIndices[k++] = l;
-	    skyboxMeshIndices[k++] = l + 1;
-	    skyboxMeshIndices[k++] = l + 2;
-	    skyboxMeshIndices[k++] = l + 2;
-	    skyboxMeshIndices[k++] = l + 3;
-	    skyboxMeshIndices[k  ] = l;
-	    l += 4;
+	// Every face is a quad of the four vertices added for it
+	for(int l = 0; l < builder.getVertexCount(); l += 4) {
+	    builder.quad(l, l + 1, l + 2, l + 3);
 	}
 	
-	skyboxMesh = new Mesh(skyboxMeshVertices, skyboxMeshIndices);
+	skyboxMesh = builder.build();
+	builder.free();
     }
     
     /**
-     * Renders the skybox centered at the camera.
-     * @param camera
+     * Writes a vertex of the skybox mesh.
+     * @param builder
+     * @param x
+     * @param y
+     * @param z
+     * @param texCoords
      */
-    public void render(PerspectiveCamera camera) {
+    private static void addVertex(final MeshBuilder builder, final float x, final float y, final float z, final Vector2f texCoords) {
+	builder.position(x, y, z).texCoords(texCoords.x, texCoords.y).endVertex();
+    }
+    
+    /**
+     * Renders the skybox centered at the camera of the current FrameUniforms.
+     */
+    public void render() {
 	if(skyboxShader == null) {
 	    throw new NullPointerException("Skybox Shader is null");
 	}
 	
 	skyboxShader.bind();
-	if(camera != null) {
-	    skyboxShader.setUniform("m_proj", camera.getProjection());
-	    skyboxShader.setUniform("m_view", camera.getView());
-	}
 	
 	if(skyboxTextureRegions != null && skyboxTextureRegions[0] != null) {
 	    skyboxTextureRegions[0].bind();
@@ -114,6 +116,15 @@ public class Skybox {
 	skyboxMesh.render();
     }
     
+    /**
+     * Releases the mesh, shader and texture of the skybox.
+     */
+    public void dispose() {
+	skyboxMesh.dispose();
+	skyboxShader.dispose();
+	skyboxTexture.dispose();
+    }
+    
     /**
      * Creates a texture region of the skybox face.
      * @param texture The texture from which to create the skybox region.
@@ -0,0 +1,156 @@
+package com.camilne.world;
+
+/**
+ * The levels of detail of the terrain grid. Every level renders the same vertices of a region with its own indices,
+ * using every (1 << level)-th vertex along each axis, so level 0 is the full grid and level 3 has 8 tiles per quad.
+ * <p>
+ * Where a region borders a coarser neighbour, the vertices of the shared edge that the neighbour does not have are
+ * snapped to its nearest vertex, so both sides of the edge run through the same vertices and no cracks appear.
+ * The triangles that become degenerate are dropped.
+ */
+public class TerrainLOD {
+    
+    // The number of levels of detail.
+    public static final int LEVELS = 4;
+    
+    // The edges of a region, in the order of RegionMap.getNeighbours().
+    public static final int POS_X = 0;
+    public static final int NEG_X = 1;
+    public static final int POS_Z = 2;
+    public static final int NEG_Z = 3;
+    
+    // The number of distinct keys, see getKey().
+    public static final int KEYS = LEVELS * LEVELS * LEVELS * LEVELS * LEVELS;
+    
+    private static final int SIZE = Region.SIZE;
+    
+    /**
+     * Returns the level of detail for a region at the specified distance from the camera
+     * @param distance The distance in regions
+     * @param lodDistance The distance in regions up to which the full grid is used. Every level reaches twice as far as the previous one
+     * @return
+     */
+    public static int selectLevel(float distance, float lodDistance) {
+	int level = 0;
+	while(level < LEVELS - 1 && distance >= lodDistance * (1 << level)) {
+	    level++;
+	}
+	
+	return level;
+    }
+    
+    /**
+     * Returns a number from 0 to KEYS - 1 that is the same for all the combinations of levels that createIndices()
+     * creates the same indices for, so that the indices can be cached
+     * @param level
+     * @param neighbourLevels The levels of the neighbours in the order POS_X, NEG_X, POS_Z, NEG_Z. Use the level of the region itself for missing neighbours
+     * @return
+     */
+    public static int getKey(int level, int[] neighbourLevels) {
+	int key = level;
+	for(int edge = 0; edge < 4; edge++) {
+	    // Finer neighbours stitch themselves to this region
+	    key = key * LEVELS + Math.max(level, neighbourLevels[edge]);
+	}
+	
+	return key;
+    }
+    
+    /**
+     * Creates the indices of the specified level. Every quad is two triangles. Does not require an OpenGL context.
+     * @param level
+     * @param neighbourLevels The levels of the neighbours in the order POS_X, NEG_X, POS_Z, NEG_Z
+     * @return
+     */
+    public static int[] createIndices(int level, int[] neighbourLevels) {
+	final int step = 1 << level;
+	// The vertex spacing along each edge. Coarser neighbours force their spacing onto the shared edge
+	final int[] edgeSteps = new int[4];
+	for(int edge = 0; edge < 4; edge++) {
+	    edgeSteps[edge] = 1 << Math.max(level, neighbourLevels[edge]);
+	}
+	
+	final int quads = SIZE / step;
+	int[] indices = new int[quads * quads * 6];
+	int idx = 0;
+	for(int j = 0; j < SIZE; j += step) {
+	    for(int i = 0; i < SIZE; i += step) {
+		// Specification of the quad corners is as follows:
+		// 3 *-* 2     y(+) *-> x(+)
+		//   |/|            |
+		// 0 *-* 1     z(+) v
+		final int corner0 = vertex(i, j, edgeSteps);
+		final int corner1 = vertex(i + step, j, edgeSteps);
+		final int corner2 = vertex(i + step, j + step, edgeSteps);
+		final int corner3 = vertex(i, j + step, edgeSteps);
+		
+		idx = addTriangle(indices, idx, corner0, corner1, corner2);
+		idx = addTriangle(indices, idx, corner2, corner3, corner0);
+	    }
+	}
+	
+	// Stitched levels drop their degenerate triangles
+	if(idx < indices.length) {
+	    int[] trimmed = new int[idx];
+	    System.arraycopy(indices, 0, trimmed, 0, idx);
+	    indices = trimmed;
+	}
+	
+	return indices;
+    }
+    
+    /**
+     * Returns the index of the grid vertex at (i,j), snapped to the vertices of the coarser edge it lies on
+     * @param i
+     * @param j
+     * @param edgeSteps The vertex spacing along each edge
+     * @return
+     */
+    private static int vertex(int i, int j, int[] edgeSteps) {
+	if(i == SIZE) {
+	    j = snap(j, edgeSteps[POS_X]);
+	} else if(i == 0) {
+	    j = snap(j, edgeSteps[NEG_X]);
+	}
+	// The region extends along -z, so the first row borders the +z neighbour
+	if(j == 0) {
+	    i = snap(i, edgeSteps[POS_Z]);
+	} else if(j == SIZE) {
+	    i = snap(i, edgeSteps[NEG_Z]);
+	}
+	
+	return i + j * (SIZE + 1);
+    }
+    
+    /**
+     * Returns the multiple of the specified step that is nearest to the specified grid coordinate
+     * @param coordinate
+     * @param step
+     * @return
+     */
+    private static int snap(int coordinate, int step) {
+	return (coordinate + step / 2) / step * step;
+    }
+    
+    /**
+     * Adds the specified triangle unless two of its corners are the same vertex
+     * @param indices
+     * @param idx The next free element of indices
+     * @param a
+     * @param b
+     * @param c
+     * @return The next free element of indices
+     */
+    private static int addTriangle(int[] indices, int idx, int a, int b, int c) {
+	if(a == b || b == c || c == a) {
+	    return idx;
+	}
+	
+	indices[idx++] = a;
+	indices[idx++] = b;
+	indices[idx++] = c;
+	
+	return idx;
+    }
+    
+}
@@ -0,0 +1,85 @@
+package com.camilne.world;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.opengl.GL11;
+
+import com.camilne.rendering.VertexFormat;
+
+/**
+ * Packs terrain vertices into 12 bytes:
+ * <pre>
+ * 0  short x, short y, short z, 2 bytes padding
+ * 8  byte normal x, byte normal y (octahedral), 2 bytes padding
+ * </pre>
+ * x and z are the grid coordinates relative to the region origin and y is the height in 1/HEIGHT_STEPS units.
+ * The texture coordinates are derived from x and z in main.vs.
+ */
+public class TerrainVertex {
+    
+    // The number of height steps per unit. Heights from -128 to 128 fit in a short.
+    public static final float HEIGHT_STEPS = 256;
+    
+    // The size of one vertex in bytes.
+    public static final int SIZE = 12;
+    
+    // The layout of the packed vertices, using the attribute locations of main.vs.
+    public static final VertexFormat FORMAT = new VertexFormat()
+	    .add(0, 3, GL11.GL_SHORT, false).pad(2)
+	    .add(2, 2, GL11.GL_BYTE, true).pad(2);
+    // The location of the per draw translation of a region in main.vs.
+    public static final int TRANSLATION_LOCATION = 4;
+    
+    /**
+     * Packs a vertex at the specified grid position with the specified normal. The normal does not need to be normalised.
+     * @param buffer The buffer to put the vertex into
+     * @param x The grid x coordinate relative to the region origin
+     * @param y The height
+     * @param z The grid z coordinate relative to the region origin
+     * @param nx
+     * @param ny
+     * @param nz
+     */
+    public static void put(ByteBuffer buffer, int x, float y, int z, float nx, float ny, float nz) {
+	buffer.putShort((short) x);
+	buffer.putShort(quantizeHeight(y));
+	buffer.putShort((short) z);
+	buffer.putShort((short) 0);
+	
+	// Project the normal onto the octahedron |x| + |y| + |z| = 1 and unfold it onto the xz plane, y being up
+	final float length = Math.abs(nx) + Math.abs(ny) + Math.abs(nz);
+	float ex = nx / length;
+	float ez = nz / length;
+	if(ny < 0) {
+	    // Fold the lower half over the diagonals
+	    final float fx = (1 - Math.abs(ez)) * (ex >= 0 ? 1 : -1);
+	    final float fz = (1 - Math.abs(ex)) * (ez >= 0 ? 1 : -1);
+	    ex = fx;
+	    ez = fz;
+	}
+	buffer.put(toNormalizedByte(ex));
+	buffer.put(toNormalizedByte(ez));
+	buffer.putShort((short) 0);
+    }
+    
+    /**
+     * Returns the specified height in 1/HEIGHT_STEPS units, clamped to the range of a short
+     * @param height
+     * @return
+     */
+    public static short quantizeHeight(float height) {
+	final int steps = Math.round(height * HEIGHT_STEPS);
+	
+	return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, steps));
+    }
+    
+    /**
+     * Converts the specified value from [-1, 1] to a signed normalized byte
+     * @param value
+     * @return
+     */
+    private static byte toNormalizedByte(float value) {
+	return (byte) Math.round(Math.max(-1, Math.min(1, value)) * 127);
+    }
+    
+}
@@ -2,31 +2,22 @@ package com.camilne.world;
 
 import java.io.IOException;
 
-import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL13;
-import org.lwjgl.opengl.GL30;
 import org.lwjgl.util.vector.Matrix4f;
-import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 
-import com.camilne.rendering.DirectionalLight;
 import com.camilne.rendering.FrameBuffer;
 import com.camilne.rendering.Mesh;
-import com.camilne.rendering.PerspectiveCamera;
+import com.camilne.rendering.MeshBuilder;
+import com.camilne.rendering.RenderQueue;
 import com.camilne.rendering.Texture;
-import com.camilne.rendering.Vertex;
+import com.camilne.rendering.Uniform;
+import com.camilne.rendering.VertexFormat;
 
 public class WaterRegion {
     
     // Static mesh for the water. The mesh is transformed differently for each WaterRegion.
-    private static final Mesh MESH = new Mesh(
-	    new Vertex[] {
-		    new Vertex(new Vector3f(0, 0, 0), new Vector2f(0, 0)),
-		    new Vertex(new Vector3f(Region.SIZE, 0, 0), new Vector2f(1, 0)),
-		    new Vertex(new Vector3f(Region.SIZE, 0, -Region.SIZE), new Vector2f(1, 1)),
-		    new Vertex(new Vector3f(0, 0, -Region.SIZE), new Vector2f(0, 1)), },
-	    new int[] { 0, 1, 2, 2, 3, 0 });
-    
+    private static final Mesh MESH = createMesh();
     
     // Translates the water to match the parent region.
     private Matrix4f transformation;
@@ -35,12 +26,9 @@ public class WaterRegion {
     
     // Shader to render the water.
     private static WaterShader shader = null;
-    
-    private static final int REFLECTION_WIDTH = 1280;
-    private static final int REFLECTION_HEIGHT = 720;
-
-    // The FBO to render the water to.
-    private FrameBuffer framebuffer;
+    // The uniforms of the shader that are set for every WaterRegion.
+    private static Uniform model;
+    private static Uniform moveFactorUniform;
     
     // The height of the water in the world.
     public static final float WATER_HEIGHT = 0;
@@ -64,6 +52,8 @@ public class WaterRegion {
 		shader.setUniform("reflection_texture", 0);
 		shader.setUniform("dudv_texture", 1);
 		shader.setUniform("normal_texture", 2);
+		model = shader.getUniform("m_model");
+		moveFactorUniform = shader.getUniform("move_factor");
 	    } catch (IOException e) {
 		e.printStackTrace();
 		System.exit(1);
@@ -77,67 +67,89 @@ public class WaterRegion {
 	if(normalTexture == null) {
 	    normalTexture = new Texture("waternormal.png");
 	}
-	
-	framebuffer = new FrameBuffer(REFLECTION_WIDTH, REFLECTION_HEIGHT);
-	framebuffer.attachTexture();
-	framebuffer.attachDepthBuffer();
-	framebuffer.verifyIntegrity();
     }
     
     /**
-     * Renders the world to the water framebuffer.
-     * @param worldCamera
-     * @param world
+     * Moves the water to the specified x and z coordinates, so that one WaterRegion can be rendered at several places
+     * @param x
+     * @param z
+     */
+    public void setPosition(float x, float z) {
+	// The transformation is only ever a translation, so its fields are set without allocating
+	transformation.m30 = x;
+	transformation.m31 = WATER_HEIGHT;
+	transformation.m32 = z;
+    }
+    
+    /**
+     * Creates the quad of one region of water.
+     * @return
      */
-    public void preRender(final PerspectiveCamera camera, final World world) {
-	GL11.glEnable(GL30.GL_CLIP_DISTANCE0);
-	framebuffer.bind();
-	GL11.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+    private static Mesh createMesh() {
+	MeshBuilder builder = new MeshBuilder(VertexFormat.POSITION_TEXTURE, 4, 6);
+	builder.position(0, 0, 0).texCoords(0, 0).endVertex();
+	builder.position(Region.SIZE, 0, 0).texCoords(1, 0).endVertex();
+	builder.position(Region.SIZE, 0, -Region.SIZE).texCoords(1, 1).endVertex();
+	builder.position(0, 0, -Region.SIZE).texCoords(0, 1).endVertex();
+	builder.quad(0, 1, 2, 3);
 	
-	// Render to reflection texture.
-	float verticalDistance = camera.getPosition().y - WATER_HEIGHT;
-	camera.getPosition().y -= verticalDistance * 2;
-	camera.invertPitch();
-	camera.update();
-	world.renderWithoutWater(camera, true);
-	camera.invertPitch();
-	camera.getPosition().y += verticalDistance * 2;
-	camera.update();
+	Mesh mesh = builder.build();
+	builder.free();
 	
-	FrameBuffer.unbind();
-	GL11.glDisable(GL30.GL_CLIP_DISTANCE0);
+	return mesh;
     }
     
-    public static void updateMovement(final double delta) {
-	moveFactor += 0.01f * delta;
-	moveFactor %= 1;
+    /**
+     * Releases the mesh, shader and textures that every WaterRegion shares. No WaterRegion can be rendered afterwards.
+     */
+    public static void disposeShared() {
+	MESH.dispose();
+	if(shader != null) {
+	    shader.dispose();
+	    shader = null;
+	}
+	if(dudvTexture != null) {
+	    dudvTexture.dispose();
+	    dudvTexture = null;
+	}
+	if(normalTexture != null) {
+	    normalTexture.dispose();
+	    normalTexture = null;
+	}
     }
     
     /**
-     * Renders the water.
-     * @param camera
+     * Returns the key to sort the water by in a RenderQueue. Every WaterRegion has the same state
+     * @param pass
+     * @param depth
+     * @return
      */
-    public void render(final PerspectiveCamera camera, final DirectionalLight light) {
+    public static long getSortKey(final int pass, final float depth) {
+	return RenderQueue.key(pass, shader.getID(), dudvTexture.getID(), MESH.getVAO().getID(), depth);
+    }
+    
+    /**
+     * Sets how far the water is animated along the displacement texture, from 0 to 1
+     * @param movement
+     */
+    public static void setMovement(final float movement) {
+	moveFactor = movement;
+    }
+    
+    /**
+     * Renders the water with the camera and sun of the current FrameUniforms.
+     * @param reflection The shared reflection of the world above the water
+     */
+    public void render(final FrameBuffer reflection) {
 	shader.bind();
-	shader.setUniform("m_model", transformation);
-	shader.setUniform("m_view", camera.getView());
-	shader.setUniform("m_proj", camera.getProjection());
-	shader.setUniform("move_factor", moveFactor);
-	shader.setUniform("camera_pos", camera.getPosition());
-	shader.setUniform("light_pos", light.getDirection().negate(null));
+	model.set(transformation);
+	moveFactorUniform.set(moveFactor);
 	
-	framebuffer.bindTexture();
+	reflection.bindTexture();
 	dudvTexture.bind(GL13.GL_TEXTURE1);
 	normalTexture.bind(GL13.GL_TEXTURE2);
 	
 	MESH.render();
     }
-    
-    /**
-     * Frees memory from the graphics card.
-     */
-    public void dispose() {
-	framebuffer.dispose();
-    }
 
 }
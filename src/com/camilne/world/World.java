@@ -1,28 +1,134 @@
 package com.camilne.world;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map.Entry;
+import java.util.Arrays;
 
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL30;
 import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector3f;
-import org.lwjgl.util.vector.Vector4f;
 
+import com.camilne.rendering.BufferArena;
 import com.camilne.rendering.DirectionalLight;
+import com.camilne.rendering.FrameBuffer;
+import com.camilne.rendering.FrameUniforms;
+import com.camilne.rendering.Frustum;
+import com.camilne.rendering.GLState;
+import com.camilne.rendering.GPUProfiler;
+import com.camilne.rendering.IndexBuffer;
+import com.camilne.rendering.MultiDrawBatch;
 import com.camilne.rendering.PerspectiveCamera;
 import com.camilne.rendering.PhongForwardShader;
+import com.camilne.rendering.RenderQueue;
+import com.camilne.rendering.Shader;
+import com.camilne.rendering.Texture;
+import com.camilne.rendering.Uniform;
+import com.camilne.util.CPUProfiler;
 
 public class World {
     
-    private HashMap<String, Region> regions;
+    private RegionMap<Region> regions;
+    // The terrain vertices of every region, drawn together in one call.
+    private MultiDrawBatch terrainBatch;
+    // The indices of the levels of detail in the batch by TerrainLOD.getKey(), added as they are needed.
+    private MultiDrawBatch.Range[] lodIndices;
+    // The number of indices the batch starts with room for, enough for the common stitching combinations.
+    private static final int LOD_INDEX_CAPACITY = 256 * 1024;
+    private Texture terrainTexture;
+    // Reused to collect the keys of the regions to unload.
+    private long[] removals;
+    private RegionGenerator generator;
+    // The terrain saved on disk, or null if the world is not saved.
+    private RegionStore store;
+    // The generated regions that are waiting for their turn to upload.
+    private RegionUploadQueue uploadQueue;
+    
+    // The default number of bytes of terrain to upload per frame. Roughly five regions of packed vertices.
+    public static final int DEFAULT_UPLOAD_BUDGET = 64 * 1024;
     private Skybox skybox;
     private int viewDistance;
+    // The distance in regions up to which the terrain is rendered at full detail. Every coarser level reaches twice as far.
+    private float lodDistance;
+    // Reused to look up the neighbours of a region and their levels of detail.
+    private Region[] neighbours;
+    private int[] neighbourLevels;
     private PhongForwardShader shader;
+    // The camera, sun and clip plane of the view being rendered, shared by every shader.
+    private FrameUniforms frameUniforms;
+    // The model matrix of the shader, set in every pass.
+    private Uniform model;
     private DirectionalLight directionalLight;
+    // How far the water is animated, advanced by update() and handed to the water by publish().
+    private float waterMovement;
+    
+    // The reflection of the world above the water. Shared by every WaterRegion and rendered once per frame.
+    private static final int REFLECTION_WIDTH = 1280;
+    private static final int REFLECTION_HEIGHT = 720;
+    private FrameBuffer reflectionBuffer;
+    
+    // The passes of the render queue, in the order they are drawn.
+    private static final int PASS_SKY = 0;
+    private static final int PASS_TERRAIN = 1;
+    private static final int PASS_WATER = 2;
+    // The draws of the view being rendered, sorted by pass, state and depth.
+    private RenderQueue queue;
+    private RenderQueue.Command skyboxCommand;
+    private RenderQueue.Command clipmapCommand;
+    private RenderQueue.Command terrainCommand;
+    private RenderQueue.Command terrainBatchCommand;
+    private RenderQueue.Command waterCommand;
+    private RenderQueue.Command waterTileCommand;
+    // Mark the start and end of the profiled pass they are added with, see GPUProfiler.
+    private RenderQueue.Command profileBeginCommand;
+    private RenderQueue.Command profileEndCommand;
+    
+    // The passes measured by the GPUProfiler. The sky and terrain are measured in every view, the reflection included.
+    private int profileReflection;
+    private int profileSky;
+    private int profileTerrain;
+    private int profileWater;
+    
+    // The scopes timed by the CPUProfiler.
+    private static final int PROFILE_UPDATE = CPUProfiler.register("World.update");
+    private static final int PROFILE_STREAM = CPUProfiler.register("World.stream");
+    private static final int PROFILE_REMOVE_REGIONS = CPUProfiler.register("World.removeRegionsOutOfRange");
+    private static final int PROFILE_ADD_REGIONS = CPUProfiler.register("World.addRegionsInRange");
+    private static final int PROFILE_UPLOAD_REGIONS = CPUProfiler.register("World.uploadRegions");
+    private static final int PROFILE_RENDER = CPUProfiler.register("World.render");
+    private static final int PROFILE_RENDER_REFLECTION = CPUProfiler.register("World.renderReflection");
+    
+    // The model matrix of the terrain, whose vertices are translated to world coordinates in main.vs.
+    private static final Matrix4f IDENTITY = new Matrix4f();
+    
+    // Whether the terrain is rendered as a geometry clipmap instead of regions.
+    private boolean clipmapEnabled;
+    // The clipmap terrain and the water tile it reuses, created the first time the clipmap is enabled.
+    private ClipmapTerrain clipmapTerrain;
+    private WaterRegion clipmapWater;
     
     public World() {
-	regions = new HashMap<String, Region>();
+	this(null);
+    }
+    
+    /**
+     * Creates a world that saves its terrain in the specified directory, and loads it from there in later sessions
+     * @param saveDirectory The directory, or null to generate the terrain every session
+     */
+    public World(final File saveDirectory) {
+	regions = new RegionMap<Region>();
+	removals = new long[64];
+	
+	if(saveDirectory != null) {
+	    try {
+		store = new RegionStore(saveDirectory);
+	    } catch(IOException e) {
+		// The world still works, it is just not saved
+		e.printStackTrace();
+	    }
+	}
+	generator = new RegionGenerator(store);
+	uploadQueue = new RegionUploadQueue(DEFAULT_UPLOAD_BUDGET);
 	
 	SkyboxConfiguration config = new SkyboxConfiguration();
 	config.faceTextureSize = 1024;
@@ -42,8 +148,13 @@ public class World {
 	}
 	
 	try {
+	    frameUniforms = new FrameUniforms();
+	    // Samplers of different types must not share a texture unit, even when the clipmap is not rendered,
+	    // so the unit is set before the shader validates its program
+	    Shader.setSamplerUnit("s_heightmap", ClipmapTerrain.HEIGHTMAP_UNIT);
 	    shader = new PhongForwardShader("main");
 	    shader.setUniform("m_model", new Matrix4f());
+	    model = shader.getUniform("m_model");
 	} catch(IOException e) {
 	    e.printStackTrace();
 	    System.exit(1);
@@ -51,86 +162,607 @@ public class World {
 	
 	directionalLight = new DirectionalLight(new Vector3f(-0.5f, -0.9f, 0.65f));
 	
-	viewDistance = 4;
+	reflectionBuffer = new FrameBuffer(REFLECTION_WIDTH, REFLECTION_HEIGHT);
+	reflectionBuffer.attachTexture();
+	reflectionBuffer.attachDepthBuffer();
+	reflectionBuffer.verifyIntegrity();
+	
+	// The levels of detail keep the triangle count of a 16 region view below that of 4 regions at full detail
+	viewDistance = 16;
+	lodDistance = 2;
+	neighbours = new Region[4];
+	neighbourLevels = new int[4];
+	
+	// Room for every region within the view distance, so streaming regions never creates buffers.
+	// The batch only grows if the view distance is raised
+	final int regionCapacity = (int) (Math.PI * (viewDistance + 2) * (viewDistance + 2));
+	terrainBatch = new MultiDrawBatch(TerrainVertex.FORMAT, TerrainVertex.TRANSLATION_LOCATION, regionCapacity * Region.VERTEX_COUNT, LOD_INDEX_CAPACITY);
+	lodIndices = new MultiDrawBatch.Range[TerrainLOD.KEYS];
+	terrainTexture = new Texture("grass.png");
+	
+	queue = new RenderQueue(2 * regionCapacity + 2);
+	createCommands();
+	
+	profileReflection = GPUProfiler.register("reflection");
+	profileSky = GPUProfiler.register("sky");
+	profileTerrain = GPUProfiler.register("terrain");
+	profileWater = GPUProfiler.register("water");
+    }
+    
+    /**
+     * Advances the animations of the world. Uses no OpenGL, so it may run on the simulation thread
+     * @param delta The time to advance by, in seconds
+     */
+    public void update(final float delta) {
+	CPUProfiler.begin(PROFILE_UPDATE);
+	// Animate water.
+	waterMovement = (waterMovement + 0.01f * delta) % 1;
+	CPUProfiler.end(PROFILE_UPDATE);
     }
     
-    public void update(final PerspectiveCamera camera, final float delta) {	
+    /**
+     * Hands the state that update() advanced to the rendering. Must be called on the OpenGL thread, while update() does not run
+     */
+    public void publish() {
+	WaterRegion.setMovement(waterMovement);
+    }
+    
+    /**
+     * Loads and unloads the terrain around the camera within this frame's upload budget. Must be called on the OpenGL thread
+     * @param camera
+     */
+    public void stream(final PerspectiveCamera camera) {
+	CPUProfiler.begin(PROFILE_STREAM);
+	if(clipmapEnabled) {
+	    // The clipmap only writes the heights that came into range, and no regions are streamed
+	    clipmapTerrain.update(camera.getPosition().x, camera.getPosition().z);
+	} else {
+	    updateRegions(camera);
+	}
+	CPUProfiler.end(PROFILE_STREAM);
+    }
+    
+    /**
+     * Loads and unloads the regions around the camera and chooses their levels of detail
+     * @param camera
+     */
+    private void updateRegions(final PerspectiveCamera camera) {
 	// Check regions that should unload
+	CPUProfiler.begin(PROFILE_REMOVE_REGIONS);
 	removeRegionsOutOfRange(camera);
+	CPUProfiler.end(PROFILE_REMOVE_REGIONS);
 	
 	// Check regions that should load
-	addRegionsInRange(camera);	
+	CPUProfiler.begin(PROFILE_ADD_REGIONS);
+	addRegionsInRange(camera);
+	CPUProfiler.end(PROFILE_ADD_REGIONS);
 	
-	// Animate water.
-	WaterRegion.updateMovement(delta);
+	// Add the regions that finished generating, within this frame's upload budget
+	CPUProfiler.begin(PROFILE_UPLOAD_REGIONS);
+	collectGeneratedRegions();
+	uploadRegions(camera);
+	CPUProfiler.end(PROFILE_UPLOAD_REGIONS);
+	updateLevels(camera);
     }
     
     public void render(final PerspectiveCamera camera) {
-	shader.bind();
-	shader.update(camera, directionalLight);
+	CPUProfiler.begin(PROFILE_RENDER);
+	// The reflection is only needed if some water is on screen
+	if(isWaterVisible(camera)) {
+	    renderReflection(camera);
+	}
 	
-	for(Entry<String, Region> region : regions.entrySet()) {
-	    region.getValue().preRenderWater(camera, this);
+	// The water is sorted into the same queue as the terrain, and drawn after it
+	queueWithoutWater(camera, false);
+	if(GPUProfiler.isEnabled()) {
+	    // The smallest and the largest key of the pass enclose every draw of the water. Every id of -1 is all ones
+	    queue.add(RenderQueue.key(PASS_WATER, 0, 0, 0, 0), profileBeginCommand, profileWater);
+	    queueWater(camera);
+	    queue.add(RenderQueue.key(PASS_WATER, -1, -1, -1, 1), profileEndCommand, profileWater);
+	} else {
+	    queueWater(camera);
+	}
+	queue.execute();
+	CPUProfiler.end(PROFILE_RENDER);
+    }
+    
+    /**
+     * Adds the water that is visible to the specified camera to the queue, back to front
+     * @param camera
+     */
+    private void queueWater(final PerspectiveCamera camera) {
+	final Frustum frustum = camera.getFrustum();
+	final Vector3f position = camera.getPosition();
+	if(clipmapEnabled) {
+	    for(int i = -viewDistance; i <= viewDistance; i++) {
+		for(int j = -viewDistance; j <= viewDistance; j++) {
+		    final int x = i + (int) (position.x / Region.SIZE);
+		    final int z = j + (int) (position.z / Region.SIZE);
+		    if(isWaterTileVisible(camera, frustum, x, z)) {
+			final float depth = squaredDistance(camera, x, z) / ((viewDistance + 2) * (viewDistance + 2));
+			// The tile coordinates are packed in 16 bits each, enough for a million units from the origin
+			queue.add(WaterRegion.getSortKey(PASS_WATER, 1 - depth), waterTileCommand, (x << 16) | (z & 0xFFFF));
+		    }
+		}
+	    }
+	    return;
 	}
 	
-	renderWithoutWater(camera, false);
+	for(int slot = regions.first(); slot != -1; slot = regions.next(slot)) {
+	    final Region region = regions.valueAt(slot);
+	    if(region.isWaterVisible(frustum)) {
+		queue.add(WaterRegion.getSortKey(PASS_WATER, 1 - getDepth(region, position)), waterCommand, slot);
+	    }
+	}
+    }
+    
+    /**
+     * Returns whether the water of any region may be visible to the specified camera
+     * @param camera
+     * @return
+     */
+    private boolean isWaterVisible(final PerspectiveCamera camera) {
+	final Frustum frustum = camera.getFrustum();
+	if(clipmapEnabled) {
+	    for(int i = -viewDistance; i <= viewDistance; i++) {
+		for(int j = -viewDistance; j <= viewDistance; j++) {
+		    if(isWaterTileVisible(camera, frustum, i + (int) (camera.getPosition().x / Region.SIZE), j + (int) (camera.getPosition().z / Region.SIZE))) {
+			return true;
+		    }
+		}
+	    }
+	    
+	    return false;
+	}
 	
-	for(Entry<String, Region> region : regions.entrySet()) {
-	    region.getValue().renderWater(camera, directionalLight);
+	for(int slot = regions.first(); slot != -1; slot = regions.next(slot)) {
+	    if(regions.valueAt(slot).isWaterVisible(frustum)) {
+		return true;
+	    }
 	}
+	
+	return false;
     }
     
-    public void renderWithoutWater(final PerspectiveCamera camera, final boolean renderReflected) {
-	shader.bind();
-	shader.update(camera, directionalLight);
+    /**
+     * Returns whether the water tile of the specified region is within the view distance and may be visible in the specified frustum.
+     * The clipmap has no height ranges per region, so water below the terrain is left to the depth test
+     * @param camera
+     * @param frustum
+     * @param regionX
+     * @param regionZ
+     * @return
+     */
+    private boolean isWaterTileVisible(final PerspectiveCamera camera, final Frustum frustum, final int regionX, final int regionZ) {
+	if(squaredDistance(camera, regionX, regionZ) >= viewDistance * viewDistance) {
+	    return false;
+	}
 	
+	// Regions extend along -z from their origin
+	return frustum.intersectsBox(regionX * Region.SIZE, WaterRegion.WATER_HEIGHT, regionZ * Region.SIZE - Region.SIZE,
+		regionX * Region.SIZE + Region.SIZE, WaterRegion.WATER_HEIGHT, regionZ * Region.SIZE);
+    }
+    
+    /**
+     * Renders the world mirrored across the water plane into the shared reflection buffer.
+     * @param camera The camera to mirror
+     */
+    private void renderReflection(final PerspectiveCamera camera) {
+	CPUProfiler.begin(PROFILE_RENDER_REFLECTION);
+	GPUProfiler.begin(profileReflection);
+	GLState.setEnabled(GL30.GL_CLIP_DISTANCE0, true);
+	reflectionBuffer.bind();
+	GL11.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+	
+	// Move the camera below the water and look up to render the reflection.
+	float verticalDistance = camera.getPosition().y - WaterRegion.WATER_HEIGHT;
+	camera.getPosition().y -= verticalDistance * 2;
+	camera.invertPitch();
+	camera.update();
+	renderWithoutWater(camera, true);
+	camera.invertPitch();
+	camera.getPosition().y += verticalDistance * 2;
+	camera.update();
+	
+	FrameBuffer.unbind();
+	GLState.setEnabled(GL30.GL_CLIP_DISTANCE0, false);
+	GPUProfiler.end(profileReflection);
+	CPUProfiler.end(PROFILE_RENDER_REFLECTION);
+    }
+    
+    public void renderWithoutWater(final PerspectiveCamera camera, final boolean renderReflected) {
+	queueWithoutWater(camera, renderReflected);
+	queue.execute();
+    }
+    
+    /**
+     * Writes the uniforms of a view and fills the queue with its sky and terrain, the terrain front to back
+     * @param camera
+     * @param renderReflected Whether the view is the reflection, which clips what is below the water
+     */
+    private void queueWithoutWater(final PerspectiveCamera camera, final boolean renderReflected) {
+	// Written once per view, the water of the view reads the same block
 	if(renderReflected) {
-	    shader.setUniform("clip_plane", new Vector4f(0, 1, 0, -WaterRegion.WATER_HEIGHT));
+	    frameUniforms.update(camera, directionalLight, 0, 1, 0, -WaterRegion.WATER_HEIGHT);
 	} else {
-	    shader.setUniform("clip_plane", new Vector4f(0, 0, 0, 0));
+	    frameUniforms.update(camera, directionalLight, 0, 0, 0, 0);
 	}
+	queue.clear();
 	
 	if(skybox != null) {
-	    skybox.render(camera);
+	    queue.add(RenderQueue.key(PASS_SKY, 0, 0, 0, 0), skyboxCommand, 0);
+	}
+	
+	if(clipmapEnabled) {
+	    queue.add(RenderQueue.key(PASS_TERRAIN, shader.getID(), 0, 0, 0), clipmapCommand, 0);
+	    return;
+	}
+	
+	// The camera is the mirrored one when rendering the reflection, so its frustum is culled against as well
+	final Frustum frustum = camera.getFrustum();
+	final Vector3f position = camera.getPosition();
+	terrainBatch.begin();
+	for(int slot = regions.first(); slot != -1; slot = regions.next(slot)) {
+	    final Region region = regions.valueAt(slot);
+	    // Terrain below the water is clipped from the reflection
+	    if(renderReflected && !region.isAboveWater()) {
+		continue;
+	    }
+	    
+	    if(region.isTerrainVisible(frustum)) {
+		queue.add(RenderQueue.key(PASS_TERRAIN, shader.getID(), terrainTexture.getID(), terrainBatch.getID(), getDepth(region, position)), terrainCommand, slot);
+	    }
+	}
+	
+	// Every visible region is drawn with one call once the batch holds them all. Added last, so it comes after
+	// the regions of the greatest depth as well
+	queue.add(RenderQueue.key(PASS_TERRAIN, shader.getID(), terrainTexture.getID(), terrainBatch.getID(), 1), terrainBatchCommand, 0);
+    }
+    
+    /**
+     * Returns the depth of a region in the render queue, from 0 at the camera to 1 beyond the view distance
+     * @param region
+     * @param position The position of the camera
+     * @return
+     */
+    private float getDepth(final Region region, final Vector3f position) {
+	final float range = (viewDistance + 2) * Region.SIZE;
+	
+	return region.getSquaredDistance(position) / (range * range);
+    }
+    
+    /**
+     * Creates the commands that the render queue executes
+     */
+    private void createCommands() {
+	skyboxCommand = new RenderQueue.Command() {
+	    @Override
+	    public void execute(int argument) {
+		GPUProfiler.begin(profileSky);
+		skybox.render();
+		GPUProfiler.end(profileSky);
+	    }
+	};
+	
+	// The clipmap is positioned in world coordinates, and the clip plane removes what is below the water from the reflection
+	clipmapCommand = new RenderQueue.Command() {
+	    @Override
+	    public void execute(int argument) {
+		GPUProfiler.begin(profileTerrain);
+		shader.bind();
+		model.set(IDENTITY);
+		clipmapTerrain.render(shader);
+		GPUProfiler.end(profileTerrain);
+	    }
+	};
+	
+	terrainCommand = new RenderQueue.Command() {
+	    @Override
+	    public void execute(int slot) {
+		regions.valueAt(slot).addDraw(getIndices(slot));
+	    }
+	};
+	
+	// The batch translates every region to its origin
+	terrainBatchCommand = new RenderQueue.Command() {
+	    @Override
+	    public void execute(int argument) {
+		shader.bind();
+		model.set(IDENTITY);
+		terrainTexture.bind();
+		GPUProfiler.begin(profileTerrain);
+		terrainBatch.render();
+		GPUProfiler.end(profileTerrain);
+	    }
+	};
+	
+	waterCommand = new RenderQueue.Command() {
+	    @Override
+	    public void execute(int slot) {
+		regions.valueAt(slot).renderWater(reflectionBuffer);
+	    }
+	};
+	
+	waterTileCommand = new RenderQueue.Command() {
+	    @Override
+	    public void execute(int tile) {
+		clipmapWater.setPosition((tile >> 16) * Region.SIZE, (short) tile * Region.SIZE);
+		clipmapWater.render(reflectionBuffer);
+	    }
+	};
+	
+	profileBeginCommand = new RenderQueue.Command() {
+	    @Override
+	    public void execute(int pass) {
+		GPUProfiler.begin(pass);
+	    }
+	};
+	
+	profileEndCommand = new RenderQueue.Command() {
+	    @Override
+	    public void execute(int pass) {
+		GPUProfiler.end(pass);
+	    }
+	};
+    }
+    
+    /**
+     * Chooses the level of detail of every region from its distance to the camera
+     * @param camera
+     */
+    private void updateLevels(final PerspectiveCamera camera) {
+	for(int slot = regions.first(); slot != -1; slot = regions.next(slot)) {
+	    final float distance = (float) Math.sqrt(squaredDistance(camera, regions.xAt(slot), regions.zAt(slot)));
+	    regions.valueAt(slot).setLevel(TerrainLOD.selectLevel(distance, lodDistance));
+	}
+    }
+    
+    /**
+     * Returns the indices of the level of detail of the specified region, stitched to its neighbours
+     * @param slot The slot of the region in the map
+     * @return
+     */
+    private MultiDrawBatch.Range getIndices(final int slot) {
+	final int level = regions.valueAt(slot).getLevel();
+	regions.getNeighbours(regions.xAt(slot), regions.zAt(slot), neighbours);
+	for(int i = 0; i < 4; i++) {
+	    // Missing neighbours leave their edge as it is
+	    neighbourLevels[i] = neighbours[i] == null ? level : neighbours[i].getLevel();
 	}
 	
-	for(Entry<String, Region> region : regions.entrySet()) {
-	    region.getValue().render(shader);
+	final int key = TerrainLOD.getKey(level, neighbourLevels);
+	if(lodIndices[key] == null) {
+	    lodIndices[key] = terrainBatch.addIndices(IndexBuffer.toShortBuffer(TerrainLOD.createIndices(level, neighbourLevels)));
 	}
+	
+	return lodIndices[key];
     }
     
     private void removeRegionsOutOfRange(final PerspectiveCamera camera) {
-	ArrayList<String> regionsToRemove = new ArrayList<String>();
-	for(Entry<String, Region> region : regions.entrySet()) {
-	    final int x = Integer.parseInt(region.getKey().split(" ")[0]);
-	    final int z = Integer.parseInt(region.getKey().split(" ")[1]);
-	    
-	    if(squaredDistance(camera, x, z) > (viewDistance + 1) * (viewDistance + 1)) {
-		regionsToRemove.add(region.getKey());
+	final int maxDistance = (viewDistance + 1) * (viewDistance + 1);
+	
+	// Collect the keys first because removing from the map while iterating it moves entries
+	int count = 0;
+	for(int slot = regions.first(); slot != -1; slot = regions.next(slot)) {
+	    if(squaredDistance(camera, regions.xAt(slot), regions.zAt(slot)) > maxDistance) {
+		count = markForRemoval(regions.keyAt(slot), count);
+	    }
+	}
+	for(int i = 0; i < count; i++) {
+	    regions.remove(removals[i]).dispose();
+	}
+	
+	// Stop generating regions that are no longer needed, and retry the failed ones once they are in range again
+	final RegionMap<?> pending = generator.getPending();
+	count = 0;
+	for(int slot = pending.first(); slot != -1; slot = pending.next(slot)) {
+	    if(squaredDistance(camera, pending.xAt(slot), pending.zAt(slot)) > maxDistance) {
+		count = markForRemoval(pending.keyAt(slot), count);
+	    }
+	}
+	final RegionMap<?> abandoned = generator.getAbandoned();
+	for(int slot = abandoned.first(); slot != -1; slot = abandoned.next(slot)) {
+	    if(squaredDistance(camera, abandoned.xAt(slot), abandoned.zAt(slot)) > maxDistance) {
+		count = markForRemoval(abandoned.keyAt(slot), count);
 	    }
 	}
-	for(String key : regionsToRemove) {
-	    regions.get(key).dispose();
-	    regions.remove(key);
+	for(int i = 0; i < count; i++) {
+	    generator.cancel(removals[i]);
 	}
-	regionsToRemove.clear();
+	
+	// Free the generated regions that are no longer needed instead of spending the upload budget on them
+	uploadQueue.removeOutOfRange(camera.getPosition().x / Region.SIZE + 0.5f, camera.getPosition().z / Region.SIZE - 0.5f, maxDistance);
+    }
+    
+    /**
+     * Stores the specified key in the reused removal list, growing it if needed
+     * @param key The packed coordinates of the region
+     * @param count The number of keys already in the list
+     * @return The new number of keys in the list
+     */
+    private int markForRemoval(final long key, final int count) {
+	if(count == removals.length) {
+	    removals = Arrays.copyOf(removals, count * 2);
+	}
+	removals[count] = key;
+	
+	return count + 1;
     }
     
     private void addRegionsInRange(final PerspectiveCamera camera) {
 	for(int i = -viewDistance; i <= viewDistance; i++) {
 	    for(int j = -viewDistance; j <= viewDistance; j++) {
-		if(squaredDistance(camera, i, j) < viewDistance * viewDistance) {
-		    final int x = i + (int) (camera.getPosition().x / Region.SIZE);
-		    final int z = j + (int) (camera.getPosition().z / Region.SIZE);
-
-		    if (!regions.containsKey(x + " " + z)) {
-			regions.put(x + " " + z, new Region(x, z));
+		final int x = i + (int) (camera.getPosition().x / Region.SIZE);
+		final int z = j + (int) (camera.getPosition().z / Region.SIZE);
+		
+		if(squaredDistance(camera, x, z) < viewDistance * viewDistance) {
+		    // Generate the region in the background. It is added once it is ready to draw
+		    if (!regions.containsKey(x, z) && !uploadQueue.contains(x, z)) {
+			generator.request(x, z);
 		    }
 		}
 	    }
 	}
     }
     
+    /**
+     * Moves the regions that finished generating to the upload queue. Never waits on the generator.
+     */
+    private void collectGeneratedRegions() {
+	RegionData data;
+	while((data = generator.poll()) != null) {
+	    uploadQueue.add(data);
+	}
+    }
+    
+    /**
+     * Creates the closest queued regions until the upload budget of this frame is spent. The rest wait for later frames.
+     * @param camera
+     */
+    private void uploadRegions(final PerspectiveCamera camera) {
+	uploadQueue.beginFrame(camera.getPosition().x / Region.SIZE + 0.5f, camera.getPosition().z / Region.SIZE - 0.5f);
+	
+	RegionData data;
+	while((data = uploadQueue.poll()) != null) {
+	    // The camera may have moved away while the region was waiting
+	    if(!regions.containsKey(data.getX(), data.getZ()) && squaredDistance(camera, data.getX(), data.getZ()) <= (viewDistance + 1) * (viewDistance + 1)) {
+		regions.put(data.getX(), data.getZ(), new Region(data, terrainBatch));
+	    }
+	    
+	    // The vertices are on the graphics card now, so the buffers can be reused by the generator
+	    data.free();
+	}
+    }
+    
+    /**
+     * Returns the radius in regions around the camera that is loaded
+     * @return
+     */
+    public int getViewDistance() {
+	return viewDistance;
+    }
+    
+    /**
+     * Sets the radius in regions around the camera that is loaded
+     * @param viewDistance
+     */
+    public void setViewDistance(final int viewDistance) {
+	if(viewDistance <= 0) {
+	    System.err.println("View distance must be positive");
+	    return;
+	}
+	
+	this.viewDistance = viewDistance;
+    }
+    
+    /**
+     * Returns the distance in regions up to which the terrain is rendered at full detail
+     * @return
+     */
+    public float getLodDistance() {
+	return lodDistance;
+    }
+    
+    /**
+     * Sets the distance in regions up to which the terrain is rendered at full detail. Every coarser level reaches twice as far
+     * @param lodDistance
+     */
+    public void setLodDistance(final float lodDistance) {
+	if(lodDistance <= 0) {
+	    System.err.println("Level of detail distance must be positive");
+	    return;
+	}
+	
+	this.lodDistance = lodDistance;
+    }
+    
+    /**
+     * Returns whether the terrain is rendered as a geometry clipmap instead of regions
+     * @return
+     */
+    public boolean isClipmapEnabled() {
+	return clipmapEnabled;
+    }
+    
+    /**
+     * Sets whether the terrain is rendered as a geometry clipmap instead of regions, to compare the two.
+     * The regions stay loaded while the clipmap is enabled, but are no longer streamed or rendered.
+     * Must be called on the OpenGL thread
+     * @param clipmapEnabled
+     */
+    public void setClipmapEnabled(final boolean clipmapEnabled) {
+	if(clipmapEnabled && clipmapTerrain == null) {
+	    // Sampled from the same noise as the regions, so both modes show the same terrain
+	    clipmapTerrain = new ClipmapTerrain(generator.getNoise());
+	    clipmapWater = new WaterRegion(0, 0);
+	}
+	
+	this.clipmapEnabled = clipmapEnabled;
+    }
+    
+    /**
+     * Returns the number of bytes of terrain that may be uploaded per frame
+     * @return
+     */
+    public int getUploadBudget() {
+	return uploadQueue.getBudget();
+    }
+    
+    /**
+     * Sets the number of bytes of terrain that may be uploaded per frame. Lower values reduce hitching, higher values reduce pop-in
+     * @param budget
+     */
+    public void setUploadBudget(final int budget) {
+	uploadQueue.setBudget(budget);
+    }
+    
+    /**
+     * Returns the arena that holds the terrain vertices of the loaded regions, which reports its usage and fragmentation
+     * @return
+     */
+    public BufferArena getTerrainArena() {
+	return terrainBatch.getVertexArena();
+    }
+    
+    /**
+     * Returns the cache of the heightmaps of recently generated regions, which holds its hit and miss counters
+     * @return
+     */
+    public HeightmapCache getHeightmapCache() {
+	return generator.getHeightmapCache();
+    }
+    
+    /**
+     * Stops generating regions and frees the memory of all loaded regions.
+     */
+    public void dispose() {
+	// Waits for the workers, so that none of them uses the store while it closes
+	generator.dispose();
+	uploadQueue.clear();
+	if(store != null) {
+	    store.close();
+	}
+	
+	for(int slot = regions.first(); slot != -1; slot = regions.next(slot)) {
+	    regions.valueAt(slot).dispose();
+	}
+	regions.clear();
+	terrainBatch.dispose();
+	terrainTexture.dispose();
+	
+	if(clipmapTerrain != null) {
+	    clipmapTerrain.dispose();
+	}
+	
+	shader.dispose();
+	frameUniforms.dispose();
+	reflectionBuffer.dispose();
+	if(skybox != null) {
+	    skybox.dispose();
+	}
+	WaterRegion.disposeShared();
+    }
+    
     private float squaredDistance(final PerspectiveCamera camera, final int regionX, final int regionZ) {
 	final float cx = camera.getPosition().x / Region.SIZE + 0.5f;
 	final float cz = camera.getPosition().z / Region.SIZE - 0.5f;